@@ -0,0 +1,39 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the GC profiler, so the bytes allocated by each
+ * operation are reported next to its time.
+ *
+ */
+public class BenchmarkMain {
+
+    /**
+     * @param args - Regular expressions selecting the benchmarks to run. With
+     *        none, all of them are run.
+     * @throws RunnerException
+     */
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        if (args.length == 0)
+            builder.include(BenchmarkMain.class.getPackage().getName() + ".*");
+        for (String arg : args)
+            builder.include(arg);
+        Options options = builder
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import unsw.graphics.world.LevelIO;
+import unsw.graphics.world.Terrain;
+
+/**
+ * Loading synthetic levels much larger than those in res/worlds, from JSON
+ * and from the binary format.
+ *
+ * Trees load their model when they are made, so run this from the UNSWgraph
+ * directory.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LevelIOBenchmark {
+
+    @Param({ "256", "1024" })
+    public int size;
+
+    @Param({ "1000" })
+    public int trees;
+
+    private File json;
+    private File binary;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        json = Levels.writeJson(size, trees);
+        binary = File.createTempFile("level" + size, LevelIO.BINARY_EXTENSION);
+        binary.deleteOnExit();
+        LevelIO.saveBinary(LevelIO.load(json), binary);
+    }
+
+    @Benchmark
+    public Terrain loadJson() throws IOException {
+        return LevelIO.load(json);
+    }
+
+    @Benchmark
+    public Terrain loadBinary() throws IOException {
+        return LevelIO.loadBinary(binary);
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import unsw.graphics.world.LevelGenerator;
+import unsw.graphics.world.LevelIO;
+import unsw.graphics.world.Terrain;
+
+/**
+ * Synthetic levels for the benchmarks, made with the same seed every time so
+ * that results can be compared from run to run.
+ *
+ */
+public class Levels {
+
+    private static final long SEED = 42;
+
+    /**
+     * Make a square terrain of the given size with rolling hills and nothing
+     * on it.
+     *
+     * @param size The number of vertices along each side
+     * @return terrain
+     */
+    public static Terrain terrain(int size) {
+        return new LevelGenerator(size, SEED).setTrees(0).setRoads(0)
+                .setPonds(0).generate(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Write a generated level with the given number of trees, and the
+     * generator's default roads and ponds, in the JSON format read by LevelIO.
+     *
+     * @param size
+     * @param trees
+     * @return A temporary file, deleted when the JVM exits
+     * @throws IOException
+     */
+    public static File writeJson(int size, int trees) throws IOException {
+        Terrain terrain = new LevelGenerator(size, SEED).setTrees(trees)
+                .generate(Runtime.getRuntime().availableProcessors());
+        File file = File.createTempFile("level" + size, ".json");
+        file.deleteOnExit();
+        LevelIO.save(terrain, file);
+        return file;
+    }
+
+}
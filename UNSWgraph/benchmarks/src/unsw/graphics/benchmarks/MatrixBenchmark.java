@@ -0,0 +1,80 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import unsw.graphics.CoordFrame3D;
+import unsw.graphics.Matrix4;
+import unsw.graphics.Matrix4f;
+import unsw.graphics.MatrixStack;
+
+/**
+ * Matrix products and chains of transformations, with the immutable
+ * {@link Matrix4} and {@link CoordFrame3D} and with the mutable
+ * {@link Matrix4f} and {@link MatrixStack}. The chains are those used to place
+ * a tree.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MatrixBenchmark {
+
+    private Matrix4 a;
+    private Matrix4 b;
+    private Matrix4f af;
+    private Matrix4f bf;
+    private CoordFrame3D frame;
+    private Matrix4f result;
+    private MatrixStack stack;
+
+    // Changed every call so the chains cannot be computed just once
+    private float x;
+
+    @Setup
+    public void setup() {
+        a = Matrix4.perspective(60, 4 / 3f, 1, 100);
+        b = CoordFrame3D.identity().translate(1, 2, 3).rotateY(30).getMatrix();
+        af = new Matrix4f(a);
+        bf = new Matrix4f(b);
+        frame = CoordFrame3D.identity();
+        result = new Matrix4f();
+        stack = new MatrixStack();
+    }
+
+    @Benchmark
+    public Matrix4 multiply() {
+        return a.multiply(b);
+    }
+
+    @Benchmark
+    public Matrix4f multiplyInPlace() {
+        return result.set(af).multiply(bf);
+    }
+
+    @Benchmark
+    public CoordFrame3D coordFrameChain() {
+        x += 0.001f;
+        return frame.translate(x, 0.5f, 2).rotateY(-45).scale(0.1f, 0.1f, 0.1f);
+    }
+
+    @Benchmark
+    public Matrix4f matrixStackChain() {
+        x += 0.001f;
+        stack.push().translate(x, 0.5f, 2).rotateY(-45).scale(0.1f, 0.1f, 0.1f);
+        Matrix4f top = stack.top();
+        stack.pop();
+        return top;
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import unsw.graphics.geometry.Point3D;
+import unsw.graphics.geometry.TriangleMesh;
+import unsw.graphics.world.Terrain;
+
+/**
+ * Building meshes: parsing the PLY models, and computing vertex normals for a
+ * grid of triangles.
+ *
+ * The PLY files are found relative to the working directory, so run this from
+ * the UNSWgraph directory.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MeshBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Models {
+        @Param({ "res/models/tree.ply", "res/models/wolf.ply" })
+        public String model;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Grid {
+        @Param({ "64", "256" })
+        public int size;
+
+        private List<Point3D> vertices;
+        private List<Integer> indices;
+
+        @Setup
+        public void setup() {
+            Terrain terrain = Levels.terrain(size);
+            vertices = terrain.getVertices();
+            indices = new ArrayList<Integer>();
+            for (int z = 0; z < size - 1; z++) {
+                for (int x = 0; x < size - 1; x++) {
+                    int i = z * size + x;
+                    indices.add(i);
+                    indices.add(i + size);
+                    indices.add(i + 1);
+                    indices.add(i + 1);
+                    indices.add(i + size);
+                    indices.add(i + size + 1);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public TriangleMesh loadPly(Models models) throws IOException {
+        return new TriangleMesh(models.model, true, true);
+    }
+
+    /**
+     * Making the mesh without normals, to subtract from
+     * {@link #computeVertexNormals(Grid)}.
+     */
+    @Benchmark
+    public TriangleMesh withoutNormals(Grid grid) {
+        return new TriangleMesh(grid.vertices, grid.indices, false);
+    }
+
+    @Benchmark
+    public TriangleMesh computeVertexNormals(Grid grid) {
+        return new TriangleMesh(grid.vertices, grid.indices, true);
+    }
+
+}
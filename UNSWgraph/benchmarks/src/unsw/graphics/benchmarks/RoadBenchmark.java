@@ -0,0 +1,62 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import unsw.graphics.geometry.Point2D;
+import unsw.graphics.geometry.TriangleMesh;
+import unsw.graphics.world.Road;
+import unsw.graphics.world.Terrain;
+
+/**
+ * Extruding roads with different numbers of Bezier segments over hilly
+ * terrain.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoadBenchmark {
+
+    private static final int SIZE = 256;
+
+    @Param({ "1", "16", "128" })
+    public int segments;
+
+    private Road road;
+
+    @Setup
+    public void setup() {
+        Terrain terrain = Levels.terrain(SIZE);
+        // A road zigzagging across the terrain, one segment per step in z
+        List<Point2D> spine = new ArrayList<Point2D>();
+        float step = (SIZE - 2f) / segments;
+        spine.add(new Point2D(1, 1));
+        for (int i = 0; i < segments; i++) {
+            float z = 1 + i * step;
+            spine.add(new Point2D(SIZE - 2, z + step / 3));
+            spine.add(new Point2D(1, z + 2 * step / 3));
+            spine.add(new Point2D(SIZE / 2f, z + step));
+        }
+        road = new Road(1, spine, terrain);
+    }
+
+    @Benchmark
+    public TriangleMesh makeMesh() {
+        return road.makeMesh();
+    }
+
+}
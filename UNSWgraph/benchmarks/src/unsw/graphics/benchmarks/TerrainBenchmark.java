@@ -0,0 +1,77 @@
+/**
+ * 
+ */
+package unsw.graphics.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import unsw.graphics.geometry.Point3D;
+import unsw.graphics.world.Terrain;
+
+/**
+ * Altitude lookups and vertex generation on terrains of several sizes.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TerrainBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({ "64", "256", "1024" })
+    public int size;
+
+    private Terrain terrain;
+    private float[] xs;
+    private float[] zs;
+    private float[] ys;
+
+    @Setup
+    public void setup() {
+        terrain = Levels.terrain(size);
+        Random random = new Random(1);
+        xs = new float[POINTS];
+        zs = new float[POINTS];
+        ys = new float[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = random.nextFloat() * (size - 1);
+            zs[i] = random.nextFloat() * (size - 1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float altitude() {
+        float sum = 0;
+        for (int i = 0; i < POINTS; i++)
+            sum += terrain.altitude(xs[i], zs[i]);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float[] altitudes() {
+        terrain.altitudes(xs, zs, ys, POINTS);
+        return ys;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Point3D> getVertices() {
+        return terrain.getVertices();
+    }
+
+}
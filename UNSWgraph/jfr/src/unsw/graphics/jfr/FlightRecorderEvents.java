@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package unsw.graphics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import unsw.graphics.Profiler;
+import unsw.graphics.ProfilerEvents;
+
+/**
+ * Emits the times {@link Profiler} measures as Java Flight Recorder events.
+ *
+ * This lives apart from the rest of UNSWgraph because jdk.jfr is not part of
+ * Java 8. The profiler loads it by name if it is on the class path and the
+ * JVM has flight recording. Events are only made while a recording that
+ * enables them is running.
+ *
+ */
+public class FlightRecorderEvents implements ProfilerEvents {
+
+    @Name("unsw.graphics.Scope")
+    @Label("Scope")
+    @Category("UNSWgraph")
+    @Description("The CPU time spent in a profiled scope of a frame")
+    static class ScopeEvent extends Event {
+        @Label("Scope")
+        String scope;
+
+        @Label("Frame")
+        long frame;
+    }
+
+    @Name("unsw.graphics.GpuScope")
+    @Label("GPU Scope")
+    @Category("UNSWgraph")
+    @Description("The GPU time spent in a profiled scope of a frame, emitted "
+            + "once the GPU has finished the frame")
+    static class GpuScopeEvent extends Event {
+        @Label("Scope")
+        String scope;
+
+        @Label("Frame")
+        long frame;
+
+        @Label("GPU Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long gpuTime;
+    }
+
+    private static final EventType SCOPE = EventType.getEventType(ScopeEvent.class);
+    private static final EventType GPU_SCOPE = EventType.getEventType(GpuScopeEvent.class);
+
+    @Override
+    public Object begin(String scope, long frame) {
+        if (!SCOPE.isEnabled())
+            return null;
+        ScopeEvent event = new ScopeEvent();
+        event.scope = scope;
+        event.frame = frame;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void end(Object event) {
+        ((ScopeEvent) event).commit();
+    }
+
+    @Override
+    public void gpu(String scope, long frame, long nanos) {
+        if (!GPU_SCOPE.isEnabled())
+            return;
+        GpuScopeEvent event = new GpuScopeEvent();
+        event.scope = scope;
+        event.frame = frame;
+        event.gpuTime = nanos;
+        event.commit();
+    }
+}
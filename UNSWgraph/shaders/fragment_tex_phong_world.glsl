@@ -1,152 +1,120 @@
 
+// Compiled in three variants, one per lighting mode, chosen by which of these
+// is defined:
+//   DAY   - lit by the sun
+//   NIGHT - lit by the moon
+//   TORCH - lit by the moon and a torch held by the camera
+
 out vec4 outputColor;
 
 uniform vec4 input_color;
 
-uniform mat4 view_matrix;
-uniform mat4 model_matrix;
-
-// Mode
-uniform int mode;
-
-// Light properties
-uniform vec3 directionalLight;
-uniform vec3 lightIntensity;
-uniform vec3 ambientIntensityNight;
-uniform vec3 ambientIntensityTorch;
-uniform vec3 ambientIntensityDay;
-uniform vec3 torchLight;
+// Light properties. The members are ordered so that each float fills the
+// space after a vec3; World sets them at the matching std140 offsets.
+layout(std140) uniform Lights {
+	// The direction to the sun or moon in view coordinates, normalized
+	vec3 lightDirection;
+	// The cosine of the torch's cutoff angle
+	float cosCutoff;
+	vec3 lightIntensity;
+	float constant;
+	vec3 torchLight;
+	float linear;
+	vec3 ambientIntensityNight;
+	float quadratic;
+	vec3 ambientIntensityTorch;
+	vec3 ambientIntensityDay;
+};
 
 // Material properties
-uniform vec3 ambientCoeff;
-uniform vec3 diffuseCoeffNight;
-uniform vec3 diffuseCoeffTorch;
-uniform vec3 diffuseCoeffDay;
-uniform vec3 specularCoeffNight;
-uniform vec3 specularCoeffTorch;
-uniform vec3 specularCoeffDay;
-uniform float phongExp;
-uniform float cutoff;
-uniform float constant;
-uniform float linear;
-uniform float quadratic;
+layout(std140) uniform Material {
+	vec3 ambientCoeff;
+	float phongExp;
+	vec3 diffuseCoeffNight;
+	vec3 diffuseCoeffTorch;
+	vec3 diffuseCoeffDay;
+	vec3 specularCoeffNight;
+	vec3 specularCoeffTorch;
+	vec3 specularCoeffDay;
+};
+
+#ifdef DAY
+#define AMBIENT_INTENSITY ambientIntensityDay
+#define DIFFUSE_COEFF diffuseCoeffDay
+#define SPECULAR_COEFF specularCoeffDay
+#else
+#define AMBIENT_INTENSITY ambientIntensityNight
+#define DIFFUSE_COEFF diffuseCoeffNight
+#define SPECULAR_COEFF specularCoeffNight
+#endif
 
 uniform sampler2D tex;
 
+// Animated textures (e.g. the pond water) keep every frame as a layer of one
+// array texture. When useTexArray is set, layer selects the frame to sample.
+uniform sampler2DArray texArray;
+uniform int layer;
+uniform int useTexArray;
+
 in vec4 viewPosition;
 in vec3 m;
 
 in vec2 texCoordFrag;
 
-void main()
+vec4 texColor()
+{
+	if (useTexArray == 1)
+		return texture(texArray, vec3(texCoordFrag, layer));
+	return texture(tex, texCoordFrag);
+}
+
+// The Phong model for a light in direction s seen from direction v
+vec4 phong(vec3 s, vec3 v, vec4 base, vec3 ambientIntensity,
+		vec3 diffuseCoeff, vec3 specularCoeff)
 {
-    // Day mode
-	if (mode == 0) {
-		// Compute the s, v and r vectors
-		vec3 s = normalize(view_matrix*vec4(directionalLight, 0)).xyz;
-		vec3 v = normalize(-viewPosition.xyz);
-		vec3 r = normalize(reflect(-s,m));
-
-		vec3 ambient = ambientIntensityDay*ambientCoeff;
-		vec3 diffuse = max(lightIntensity*diffuseCoeffDay*dot(m,s), 0.0);
-		vec3 specular;
-
-		// Only show specular reflections for the front face
-		if (dot(m,s) > 0)
-			specular = max(lightIntensity*specularCoeffDay*pow(dot(r,v),phongExp), 0.0);
-		else
-			specular = vec3(0);
-
-		vec4 ambientAndDiffuse = vec4(ambient + diffuse, 1);
-
-		outputColor = ambientAndDiffuse*input_color*texture(tex, texCoordFrag) + vec4(specular, 1);
-	}
-
-    // Night Mode
-	if (mode == 1) {
-		// Compute the s, v and r vectors
-		vec3 s = normalize(view_matrix*vec4(directionalLight, 0)).xyz;
-		vec3 v = normalize(-viewPosition.xyz);
-		vec3 r = normalize(reflect(-s,m));
-
-		vec3 ambient = ambientIntensityNight*ambientCoeff;
-		vec3 diffuse = max(lightIntensity*diffuseCoeffNight*dot(m,s), 0.0);
-		vec3 specular;
-
-		// Only show specular reflections for the front face
-		if (dot(m,s) > 0)
-			specular = max(lightIntensity*specularCoeffNight*pow(dot(r,v),phongExp), 0.0);
-		else
-			specular = vec3(0);
-
-		vec4 ambientAndDiffuse = vec4(ambient + diffuse, 1);
-
-		outputColor = ambientAndDiffuse*input_color*texture(tex, texCoordFrag) + vec4(specular, 1);
-	}
-
-    // Torch Mode
-	if (mode == 2) {
-        // Compute the s, v and n vectors
-		vec3 s = (-vec4(torchLight, 0) + viewPosition).xyz;
-		vec3 v = normalize(-viewPosition.xyz);
-		vec3 n = normalize(vec3(0, 0, -1));
-        
-        // Compute the distance between the view point and the fragment
-        float d = length(s);
-        
-        // Compute the attenuation
-        float attenuation = 1.0 / (constant + linear * d + quadratic * (d * d));
-		
-        // Compute the angle
-        s = normalize(s);
-        float angle = degrees(acos(dot(n, s)));
-        
-        // Check the cutoff
-		if (angle <= cutoff) {
-            // Compute the output color for the torch light
-            float spotlightAttenuation = pow(cos(radians(angle)), 16.0f);
-			vec3 r = normalize(reflect(-s,m));
-			vec3 ambient = ambientIntensityTorch*ambientCoeff*attenuation;
-			vec3 diffuse = max(lightIntensity*diffuseCoeffTorch*dot(m,s), 0.0)*attenuation;
-			vec3 specular;
-			if (dot(m,s) > 0)
-				specular = max(lightIntensity*specularCoeffTorch*pow(dot(r,v),phongExp), 0.0)*attenuation;
-			else
-				specular = vec3(0);
-			vec4 ambientAndDiffuse = vec4(ambient + diffuse, 1);
-			vec4 outputColorTorch = ambientAndDiffuse*input_color*texture(tex, texCoordFrag) + vec4(specular, 1);
-            outputColorTorch = spotlightAttenuation*outputColorTorch;
-            
-            // Compute the output color for the directional light
-            s = normalize(view_matrix*vec4(directionalLight, 0)).xyz;
-            v = normalize(-viewPosition.xyz);
-            r = normalize(reflect(-s,m));
-            ambient = ambientIntensityNight*ambientCoeff;
-            diffuse = max(lightIntensity*diffuseCoeffNight*dot(m,s), 0.0);
-            if (dot(m,s) > 0)
-                specular = max(lightIntensity*specularCoeffNight*pow(dot(r,v),phongExp), 0.0);
-            else
-                specular = vec3(0);
-            ambientAndDiffuse = vec4(ambient + diffuse, 1);
-            vec4 outputColorLight = ambientAndDiffuse*input_color*texture(tex, texCoordFrag) + vec4(specular, 1);
-            
-            // Combine two lights
-            outputColor = outputColorTorch + outputColorLight;
-		} else {
-            // Everything outside the cutoff angle should only be lit by the directional light
-			s = normalize(view_matrix*vec4(directionalLight, 0)).xyz;
-			v = normalize(-viewPosition.xyz);
-			vec3 r = normalize(reflect(-s,m));
-			vec3 ambient = ambientIntensityNight*ambientCoeff;
-			vec3 diffuse = max(lightIntensity*diffuseCoeffNight*dot(m,s), 0.0);
-			vec3 specular;
-			if (dot(m,s) > 0)
-				specular = max(lightIntensity*specularCoeffNight*pow(dot(r,v),phongExp), 0.0);
-			else
-				specular = vec3(0);
-			vec4 ambientAndDiffuse = vec4(ambient + diffuse, 1);
-			outputColor = ambientAndDiffuse*input_color*texture(tex, texCoordFrag) + vec4(specular, 1);
-		}
-	}
+	vec3 r = normalize(reflect(-s,m));
+	float ms = dot(m,s);
+
+	vec3 ambient = ambientIntensity*ambientCoeff;
+	vec3 diffuse = max(lightIntensity*diffuseCoeff*ms, 0.0);
+
+	// Only show specular reflections for the front face
+	vec3 specular = max(lightIntensity*specularCoeff*pow(dot(r,v),phongExp), 0.0)
+			* float(ms > 0.0);
+
+	return vec4(ambient + diffuse, 1)*base + vec4(specular, 1);
 }
 
+void main()
+{
+	vec3 v = normalize(-viewPosition.xyz);
+	vec4 base = input_color*texColor();
+
+	outputColor = phong(lightDirection, v, base, AMBIENT_INTENSITY,
+			DIFFUSE_COEFF, SPECULAR_COEFF);
+
+#ifdef TORCH
+	vec3 s = (-vec4(torchLight, 0) + viewPosition).xyz;
+
+	// Compute the attenuation with the distance between the torch and the
+	// fragment
+	float d = length(s);
+	float attenuation = 1.0 / (constant + linear * d + quadratic * (d * d));
+
+	// The torch points along -z, and only lights what is within the cutoff
+	s = normalize(s);
+	float cosAngle = dot(vec3(0, 0, -1), s);
+	float spotlightAttenuation = pow(max(cosAngle, 0.0), 16.0)
+			* step(cosCutoff, cosAngle);
+
+	vec3 r = normalize(reflect(-s,m));
+	float ms = dot(m,s);
+	vec3 ambient = ambientIntensityTorch*ambientCoeff*attenuation;
+	vec3 diffuse = max(lightIntensity*diffuseCoeffTorch*ms, 0.0)*attenuation;
+	vec3 specular = max(lightIntensity*specularCoeffTorch*pow(dot(r,v),phongExp), 0.0)
+			* attenuation * float(ms > 0.0);
+	vec4 torch = vec4(ambient + diffuse, 1)*base + vec4(specular, 1);
+
+	outputColor += spotlightAttenuation*torch;
+#endif
+}
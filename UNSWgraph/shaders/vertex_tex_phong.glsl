@@ -13,11 +13,16 @@ in vec3 normal;
 // Incoming texture coordinate
 in vec2 texCoord;
 
-uniform mat4 model_matrix;
+// Incoming per-instance model matrix. This is the identity unless the mesh is
+// drawn instanced.
+in mat4 instance_matrix;
 
-uniform mat4 view_matrix;
+uniform mat4 model_matrix;
 
-uniform mat4 proj_matrix;
+layout(std140) uniform Camera {
+	mat4 view_matrix;
+	mat4 proj_matrix;
+};
 
 out vec4 viewPosition;
 out vec3 m;
@@ -25,8 +30,10 @@ out vec3 m;
 out vec2 texCoordFrag;
 
 void main() {
+    mat4 model = model_matrix * instance_matrix;
+
 	// The global position is in homogenous coordinates
-    vec4 globalPosition = model_matrix * vec4(position, 1);
+    vec4 globalPosition = model * vec4(position, 1);
 
     // The position in camera coordinates
     viewPosition = view_matrix * globalPosition;
@@ -35,7 +42,7 @@ void main() {
     gl_Position = proj_matrix * viewPosition;
 
     // Compute the normal in view coordinates
-    m = normalize(view_matrix*model_matrix * vec4(normal, 0)).xyz;
+    m = normalize(view_matrix*model * vec4(normal, 0)).xyz;
 
     texCoordFrag = texCoord;
 }
@@ -29,6 +29,8 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
@@ -73,6 +75,11 @@ import java.util.Map;
  * if they are not the reserved words <code>true</code>, <code>false</code>, or
  * <code>null</code>.</li>
  * </ul>
+ * <p>
+ * An array parsed from text that holds nothing but Integers and Doubles is
+ * stored packed in a <code>double[]</code> instead of as boxed values, so
+ * large numeric arrays take 8 bytes per element. Such an array is unpacked
+ * into a list of values the first time it is changed.
  *
  * @author JSON.org
  * @version 2013-04-18
@@ -80,9 +87,23 @@ import java.util.Map;
 public class JSONArray {
 
     /**
-     * The arrayList where the JSONArray's properties are kept.
+     * The arrayList where the JSONArray's properties are kept, or null while
+     * they are packed.
+     */
+    private ArrayList myArrayList;
+
+    /**
+     * The packed values, or null if the values are in myArrayList. Only the
+     * first packedLength entries are used.
+     */
+    private double[] packed;
+
+    private int packedLength;
+
+    /**
+     * Which of the packed values are Doubles rather than Integers.
      */
-    private final ArrayList myArrayList;
+    private BitSet packedDoubles;
 
     /**
      * Construct an empty JSONArray.
@@ -100,7 +121,8 @@ public class JSONArray {
      *             If there is a syntax error.
      */
     public JSONArray(JSONTokener x) throws JSONException {
-        this();
+        this.packed = new double[16];
+        this.packedDoubles = new BitSet();
         if (x.nextClean() != '[') {
             throw x.syntaxError("A JSONArray text must start with '['");
         }
@@ -109,25 +131,110 @@ public class JSONArray {
             for (;;) {
                 if (x.nextClean() == ',') {
                     x.back();
-                    this.myArrayList.add(JSONObject.NULL);
+                    this.add(JSONObject.NULL);
                 } else {
                     x.back();
-                    this.myArrayList.add(x.nextValue());
+                    Object value = x.nextValueOrNumber();
+                    if (value != null) {
+                        this.add(value);
+                    } else if (x.numberType() == JSONTokener.DOUBLE) {
+                        this.addPacked(x.doubleValue(), true);
+                    } else if (x.numberType() == JSONTokener.INTEGER) {
+                        this.addPacked(x.longValue(), false);
+                    } else {
+                        this.add(Long.valueOf(x.longValue()));
+                    }
                 }
                 switch (x.nextClean()) {
                 case ',':
                     if (x.nextClean() == ']') {
+                        this.trimPacked();
                         return;
                     }
                     x.back();
                     break;
                 case ']':
+                    this.trimPacked();
                     return;
                 default:
                     throw x.syntaxError("Expected a ',' or ']'");
                 }
             }
         }
+        this.trimPacked();
+    }
+
+    /**
+     * Add a parsed value, packing it if it is an Integer or Double and the
+     * values are still packed.
+     */
+    private void add(Object value) {
+        if (this.packed != null) {
+            if (value instanceof Integer) {
+                this.addPacked(((Integer) value).intValue(), false);
+                return;
+            }
+            if (value instanceof Double) {
+                this.addPacked(((Double) value).doubleValue(), true);
+                return;
+            }
+            this.unpack();
+        }
+        this.myArrayList.add(value);
+    }
+
+    private void addPacked(double value, boolean isDouble) {
+        if (this.packed == null) {
+            this.myArrayList.add(isDouble
+                ? (Object) Double.valueOf(value)
+                : (Object) Integer.valueOf((int) value));
+            return;
+        }
+        if (this.packedLength == this.packed.length) {
+            this.packed = Arrays.copyOf(this.packed, this.packedLength * 2);
+        }
+        if (isDouble) {
+            this.packedDoubles.set(this.packedLength);
+        }
+        this.packed[this.packedLength] = value;
+        this.packedLength += 1;
+    }
+
+    /**
+     * Drop the unused end of the packed values once parsing is done.
+     */
+    private void trimPacked() {
+        if (this.packed != null && this.packed.length != this.packedLength) {
+            this.packed = Arrays.copyOf(this.packed, this.packedLength);
+        }
+    }
+
+    /**
+     * Get a packed value as the object it was parsed from.
+     */
+    private Object packedValue(int index) {
+        double value = this.packed[index];
+        return this.packedDoubles.get(index)
+            ? (Object) Double.valueOf(value)
+            : (Object) Integer.valueOf((int) value);
+    }
+
+    /**
+     * Move the packed values into myArrayList, so that values of any type can
+     * be stored.
+     */
+    private void unpack() {
+        if (this.packed == null) {
+            return;
+        }
+        ArrayList<Object> list = new ArrayList<Object>(this.packedLength);
+        for (int i = 0; i < this.packedLength; i += 1) {
+            list.add(this.packedValue(i));
+        }
+        this.myArrayList = list;
+        this.packed = null;
+        this.packedDoubles = null;
+        this.packedLength = 0;
     }
 
     /**
@@ -232,6 +339,9 @@ public class JSONArray {
      *             to a number.
      */
     public double getDouble(int index) throws JSONException {
+        if (this.packed != null && index >= 0 && index < this.packedLength) {
+            return this.packed[index];
+        }
         Object object = this.get(index);
         try {
             return object instanceof Number ? ((Number) object).doubleValue()
@@ -251,6 +361,9 @@ public class JSONArray {
      *             If the key is not found or if the value is not a number.
      */
     public int getInt(int index) throws JSONException {
+        if (this.packed != null && index >= 0 && index < this.packedLength) {
+            return (int) this.packed[index];
+        }
         Object object = this.get(index);
         try {
             return object instanceof Number ? ((Number) object).intValue()
@@ -363,7 +476,7 @@ public class JSONArray {
             if (i > 0) {
                 sb.append(separator);
             }
-            sb.append(JSONObject.valueToString(this.myArrayList.get(i)));
+            sb.append(JSONObject.valueToString(this.opt(i)));
         }
         return sb.toString();
     }
@@ -374,6 +487,9 @@ public class JSONArray {
      * @return The length (or size).
      */
     public int length() {
+        if (this.packed != null) {
+            return this.packedLength;
+        }
         return this.myArrayList.size();
     }
 
@@ -385,8 +501,12 @@ public class JSONArray {
      * @return An object value, or null if there is no object at that index.
      */
     public Object opt(int index) {
-        return (index < 0 || index >= this.length()) ? null : this.myArrayList
-                .get(index);
+        if (index < 0 || index >= this.length()) {
+            return null;
+        }
+        return this.packed != null
+            ? this.packedValue(index)
+            : this.myArrayList.get(index);
     }
 
     /**
@@ -446,6 +566,11 @@ public class JSONArray {
      * @return The value.
      */
     public double optDouble(int index, double defaultValue) {
+        if (this.packed != null) {
+            return index >= 0 && index < this.packedLength
+                ? this.packed[index]
+                : defaultValue;
+        }
         try {
             return this.getDouble(index);
         } catch (Exception e) {
@@ -661,6 +786,7 @@ public class JSONArray {
      * @return this.
      */
     public JSONArray put(Object value) {
+        this.unpack();
         this.myArrayList.add(value);
         return this;
     }
@@ -793,6 +919,7 @@ public class JSONArray {
         if (index < 0) {
             throw new JSONException("JSONArray[" + index + "] not found.");
         }
+        this.unpack();
         if (index < this.length()) {
             this.myArrayList.set(index, value);
         } else {
@@ -814,10 +941,34 @@ public class JSONArray {
      */
     public Object remove(int index) {
         Object o = this.opt(index);
+        this.unpack();
         this.myArrayList.remove(index);
         return o;
     }
 
+    /**
+     * Get all the values as floats. Packed values are read directly, without
+     * boxing.
+     *
+     * @return An array of the values.
+     * @throws JSONException
+     *             If any value cannot be converted to a number.
+     */
+    public float[] toFloatArray() throws JSONException {
+        int length = this.length();
+        float[] floats = new float[length];
+        if (this.packed != null) {
+            for (int i = 0; i < length; i += 1) {
+                floats[i] = (float) this.packed[i];
+            }
+        } else {
+            for (int i = 0; i < length; i += 1) {
+                floats[i] = (float) this.getDouble(i);
+            }
+        }
+        return floats;
+    }
+
     /**
      * Produce a JSONObject by combining a JSONArray of names with the values of
      * this JSONArray.
@@ -913,7 +1064,7 @@ public class JSONArray {
             writer.write('[');
 
             if (length == 1) {
-                JSONObject.writeValue(writer, this.myArrayList.get(0),
+                JSONObject.writeValue(writer, this.opt(0),
                         indentFactor, indent);
             } else if (length != 0) {
                 final int newindent = indent + indentFactor;
@@ -926,7 +1077,7 @@ public class JSONArray {
                         writer.write('\n');
                     }
                     JSONObject.indent(writer, newindent);
-                    JSONObject.writeValue(writer, this.myArrayList.get(i),
+                    JSONObject.writeValue(writer, this.opt(i),
                             indentFactor, newindent);
                     commanate = true;
                 }
@@ -1,11 +1,11 @@
 package org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -35,11 +35,32 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * Characters are read from a char array window rather than one at a time, and
+ * numbers are parsed straight from that window without building a String for
+ * them whenever they are in plain decimal form.
  * @author JSON.org
  * @version 2012-02-16
  */
 public class JSONTokener {
 
+    /**
+     * The initial size of the window when reading from a Reader.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    static final int INTEGER = 1;
+    static final int LONG = 2;
+    static final int DOUBLE = 3;
+
     private long    character;
     private boolean eof;
     private long    index;
@@ -48,6 +69,40 @@ public class JSONTokener {
     private Reader  reader;
     private boolean usePrevious;
 
+    /**
+     * The window of source characters. Characters before position have been
+     * read; those from position up to limit have not.
+     */
+    private char[]  buffer;
+    private int     position;
+    private int     limit;
+
+    /**
+     * Whether the last call to next() took a character from the window, as
+     * opposed to returning 0 at the end of the source.
+     */
+    private boolean consumed;
+
+    /**
+     * The position of the first character that must be kept in the window
+     * when it is refilled, or -1 if only the last character read must be.
+     */
+    private int     mark;
+
+    /**
+     * The bounds of the last token found by scanToken().
+     */
+    private int     tokenStart;
+    private int     tokenEnd;
+
+    /**
+     * The last number parsed by parseNumber(), and which of INTEGER, LONG or
+     * DOUBLE it is.
+     */
+    private int     numberType;
+    private long    longValue;
+    private double  doubleValue;
+
 
     /**
      * Construct a JSONTokener from a Reader.
@@ -55,9 +110,25 @@ public class JSONTokener {
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported()
-            ? reader
-            : new BufferedReader(reader);
+        this(new char[BUFFER_SIZE], 0, 0);
+        this.reader = reader;
+    }
+
+
+    /**
+     * Construct a JSONTokener from part of a char array. The array is used
+     * directly as the window, without being copied, so it must not be changed
+     * while the tokener is in use.
+     *
+     * @param chars     The source characters.
+     * @param offset    The index of the first source character.
+     * @param length    The number of source characters.
+     */
+    public JSONTokener(char[] chars, int offset, int length) {
+        this.buffer = chars;
+        this.position = offset;
+        this.limit = offset + length;
+        this.mark = -1;
         this.eof = false;
         this.usePrevious = false;
         this.previous = 0;
@@ -67,6 +138,19 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Construct a JSONTokener from the remaining characters of a CharBuffer.
+     * If the buffer is backed by an array, that array is used directly.
+     *
+     * @param chars     The source characters.
+     */
+    public JSONTokener(CharBuffer chars) {
+        this(chars.hasArray() ? chars.array() : chars.toString().toCharArray(),
+                chars.hasArray() ? chars.arrayOffset() + chars.position() : 0,
+                chars.remaining());
+    }
+
+
     /**
      * Construct a JSONTokener from an InputStream.
      */
@@ -81,7 +165,7 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this(s.toCharArray(), 0, s.length());
     }
 
 
@@ -94,6 +178,9 @@ public class JSONTokener {
         if (this.usePrevious || this.index <= 0) {
             throw new JSONException("Stepping back two steps is not supported");
         }
+        if (this.consumed) {
+            this.position -= 1;
+        }
         this.index -= 1;
         this.character -= 1;
         this.usePrevious = true;
@@ -101,6 +188,44 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Read more of the source into the window, keeping the last character
+     * read (so back() can return to it) and everything from the mark on.
+     * @return false if there is no more source.
+     */
+    private boolean fill() throws JSONException {
+        if (this.reader == null) {
+            return false;
+        }
+        int keep = this.mark >= 0 ? this.mark : Math.max(this.position - 1, 0);
+        if (keep > 0) {
+            System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+            this.position -= keep;
+            this.limit -= keep;
+            if (this.mark >= 0) {
+                this.mark -= keep;
+            }
+        }
+        if (this.limit == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        try {
+            int n;
+            do {
+                n = this.reader.read(this.buffer, this.limit,
+                        this.buffer.length - this.limit);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            this.limit += n;
+            return true;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+
     /**
      * Get the hex value of a character (base16).
      * @param c A character between '0' and '9' or between 'A' and 'F' or
@@ -147,20 +272,17 @@ public class JSONTokener {
      */
     public char next() throws JSONException {
         int c;
-        if (this.usePrevious) {
-            this.usePrevious = false;
-            c = this.previous;
+        this.usePrevious = false;
+        if (this.position < this.limit || this.fill()) {
+            c = this.buffer[this.position];
+            this.position += 1;
+            this.consumed = true;
         } else {
-            try {
-                c = this.reader.read();
-            } catch (IOException exception) {
-                throw new JSONException(exception);
-            }
-
-            if (c <= 0) { // End of stream
-                this.eof = true;
-                c = 0;
-            }
+            c = 0;
+            this.consumed = false;
+        }
+        if (c == 0) { // End of stream
+            this.eof = true;
         }
         this.index += 1;
         if (this.previous == '\r') {
@@ -351,6 +473,30 @@ public class JSONTokener {
      * @return An object.
      */
     public Object nextValue() throws JSONException {
+        Object value = this.nextValueOrNumber();
+        if (value != null) {
+            return value;
+        }
+        switch (this.numberType) {
+        case INTEGER:
+            return Integer.valueOf((int) this.longValue);
+        case LONG:
+            return Long.valueOf(this.longValue);
+        default:
+            return Double.valueOf(this.doubleValue);
+        }
+    }
+
+
+    /**
+     * Get the next value like {@link #nextValue()}, except that a number
+     * which can be parsed in place is not boxed. Its value is left to be read
+     * with numberType(), longValue() and doubleValue() instead.
+     * @throws JSONException If syntax error.
+     *
+     * @return An object, or null if the value was left unboxed.
+     */
+    Object nextValueOrNumber() throws JSONException {
         char c = this.nextClean();
         String string;
 
@@ -375,21 +521,251 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
-            c = this.next();
-        }
-        this.back();
-
-        string = sb.toString().trim();
-        if ("".equals(string)) {
+        if (!isTokenChar(c)) {
+            this.back();
             throw this.syntaxError("Missing value");
         }
+        this.scanToken();
+        if (this.parseNumber()) {
+            return null;
+        }
+        string = new String(this.buffer, this.tokenStart,
+                this.tokenEnd - this.tokenStart);
         return JSONObject.stringToValue(string);
     }
 
 
+    /**
+     * Get the next value, which must be a number, without boxing it. This
+     * accepts the same numbers as {@link #nextValue()}.
+     * @throws JSONException If the next value is not a number.
+     *
+     * @return The number.
+     */
+    public double nextNumber() throws JSONException {
+        char c = this.nextClean();
+        if (!isTokenChar(c)) {
+            this.back();
+            throw this.syntaxError("Expected a number");
+        }
+        this.scanToken();
+        if (this.parseNumber()) {
+            return this.numberType == DOUBLE
+                ? this.doubleValue
+                : this.longValue;
+        }
+        Object value = JSONObject.stringToValue(new String(this.buffer,
+                this.tokenStart, this.tokenEnd - this.tokenStart));
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw this.syntaxError("Expected a number");
+    }
+
+
+    /**
+     * Which of INTEGER, LONG or DOUBLE the last unboxed number is.
+     */
+    int numberType() {
+        return this.numberType;
+    }
+
+
+    /**
+     * The last unboxed number, if it is an INTEGER or LONG.
+     */
+    long longValue() {
+        return this.longValue;
+    }
+
+
+    /**
+     * The last unboxed number, if it is a DOUBLE.
+     */
+    double doubleValue() {
+        return this.doubleValue;
+    }
+
+
+    /**
+     * Determine whether a character can be part of unquoted text.
+     */
+    private static boolean isTokenChar(char c) {
+        if (c < ' ') {
+            return false;
+        }
+        switch (c) {
+        case ',': case ':': case ']': case '}': case '/': case '\\':
+        case '"': case '[': case '{': case ';': case '=': case '#':
+            return false;
+        default:
+            return true;
+        }
+    }
+
+
+    /**
+     * Find the end of the unquoted text whose first character was just read,
+     * leaving the text in the window between tokenStart and tokenEnd with
+     * surrounding spaces trimmed. The character after the text is not read.
+     */
+    private void scanToken() throws JSONException {
+        this.mark = this.position - 1;
+        for (;;) {
+            if (this.position == this.limit && !this.fill()) {
+                break;
+            }
+            if (!isTokenChar(this.buffer[this.position])) {
+                break;
+            }
+            this.position += 1;
+        }
+        int start = this.mark;
+        int end = this.position;
+        this.mark = -1;
+
+        // The first character has already been counted by next()
+        this.index += end - start - 1;
+        this.character += end - start - 1;
+        this.previous = this.buffer[end - 1];
+        // As if the character after the text had been read and backed up
+        this.usePrevious = true;
+
+        while (start < end && this.buffer[start] <= ' ') {
+            start += 1;
+        }
+        while (end > start && this.buffer[end - 1] <= ' ') {
+            end -= 1;
+        }
+        this.tokenStart = start;
+        this.tokenEnd = end;
+    }
+
+
+    /**
+     * Parse the last token as a number, giving the same result as
+     * {@link JSONObject#stringToValue(String)} but without making a String.
+     * Only plain decimal numbers that can be converted exactly are handled;
+     * anything else is left to stringToValue.
+     * @return true if the token was parsed, false to fall back on
+     * stringToValue.
+     */
+    private boolean parseNumber() {
+        char[] b = this.buffer;
+        int p = this.tokenStart;
+        int end = this.tokenEnd;
+        boolean negative = false;
+        if (p < end && b[p] == '-') {
+            negative = true;
+            p += 1;
+        }
+
+        // The significant digits as an integer, and the power of ten to
+        // multiply them by
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean decimal = false;
+
+        int integerStart = p;
+        while (p < end && b[p] >= '0' && b[p] <= '9') {
+            int d = b[p] - '0';
+            if (digits > 0 || d != 0) {
+                if (digits == 18) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + d;
+                digits += 1;
+            }
+            p += 1;
+        }
+        if (p == integerStart) {
+            return false;
+        }
+        // Leading zeros make stringToValue keep integers as strings
+        if (p - integerStart > 1 && b[integerStart] == '0') {
+            return false;
+        }
+
+        if (p < end && b[p] == '.') {
+            decimal = true;
+            p += 1;
+            int fractionStart = p;
+            while (p < end && b[p] >= '0' && b[p] <= '9') {
+                int d = b[p] - '0';
+                if (digits > 0 || d != 0) {
+                    if (digits == 18) {
+                        return false;
+                    }
+                    mantissa = mantissa * 10 + d;
+                    digits += 1;
+                }
+                exponent -= 1;
+                p += 1;
+            }
+            if (p == fractionStart) {
+                return false;
+            }
+        }
+
+        if (p < end && (b[p] == 'e' || b[p] == 'E')) {
+            decimal = true;
+            p += 1;
+            boolean negativeExponent = false;
+            if (p < end && (b[p] == '+' || b[p] == '-')) {
+                negativeExponent = b[p] == '-';
+                p += 1;
+            }
+            int exponentStart = p;
+            int e = 0;
+            while (p < end && b[p] >= '0' && b[p] <= '9') {
+                if (e > 1000) {
+                    return false;
+                }
+                e = e * 10 + (b[p] - '0');
+                p += 1;
+            }
+            if (p == exponentStart) {
+                return false;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+
+        if (p != end) {
+            return false;
+        }
+
+        if (!decimal) {
+            // stringToValue keeps "-0" as a string
+            if (negative && mantissa == 0) {
+                return false;
+            }
+            this.longValue = negative ? -mantissa : mantissa;
+            this.numberType = this.longValue == (int) this.longValue
+                ? INTEGER
+                : LONG;
+            return true;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+            // Both the mantissa and the power of ten are exact, so one
+            // correctly rounded operation gives the correctly rounded result
+            value = mantissa;
+            value = exponent < 0
+                ? value / POWERS_OF_TEN[-exponent]
+                : value * POWERS_OF_TEN[exponent];
+        } else {
+            return false;
+        }
+        this.doubleValue = negative ? -value : value;
+        this.numberType = DOUBLE;
+        return true;
+    }
+
+
     /**
      * Skip characters until the next character is the requested character.
      * If the requested character is not found, no characters are skipped.
@@ -399,24 +775,23 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
-        try {
-            long startIndex = this.index;
-            long startCharacter = this.character;
-            long startLine = this.line;
-            this.reader.mark(1000000);
-            do {
-                c = this.next();
-                if (c == 0) {
-                    this.reader.reset();
-                    this.index = startIndex;
-                    this.character = startCharacter;
-                    this.line = startLine;
-                    return c;
-                }
-            } while (c != to);
-        } catch (IOException exc) {
-            throw new JSONException(exc);
-        }
+        long startIndex = this.index;
+        long startCharacter = this.character;
+        long startLine = this.line;
+        this.mark = this.position;
+        do {
+            c = this.next();
+            if (c == 0) {
+                this.position = this.mark;
+                this.mark = -1;
+                this.index = startIndex;
+                this.character = startCharacter;
+                this.line = startLine;
+                this.eof = false;
+                return c;
+            }
+        } while (c != to);
+        this.mark = -1;
 
         this.back();
         return c;
@@ -14,7 +14,9 @@ import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLCapabilities;
 import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLDrawableFactory;
 import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
 import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.util.FPSAnimator;
 
@@ -115,10 +117,39 @@ public abstract class Application implements GLEventListener {
         animator.start();
     }
 
+    /**
+     * Start the application without a window, drawing into an offscreen
+     * surface of the application's size instead.
+     * 
+     * Nothing is animated: each call to display() on the returned drawable
+     * draws one frame, as fast as the caller asks for them. This does not
+     * need a display, so it works on a headless machine with a software
+     * OpenGL implementation like Mesa's llvmpipe.
+     * 
+     * @param pbuffer Whether to draw into a pbuffer rather than a
+     *        framebuffer object
+     * @return The drawable. The application is initialised when it draws
+     *         its first frame.
+     */
+    public GLOffscreenAutoDrawable startOffscreen(boolean pbuffer) {
+        GLProfile glProfile = GLProfile.get(GLProfile.GL3);
+        GLCapabilities glCapabilities = new GLCapabilities(glProfile);
+        glCapabilities.setOnscreen(false);
+        glCapabilities.setPBuffer(pbuffer);
+        glCapabilities.setFBO(!pbuffer);
+
+        GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(glProfile)
+                .createOffscreenAutoDrawable(null, glCapabilities, null, width, height);
+        drawable.addGLEventListener(this);
+        return drawable;
+    }
+
     @Override
     public void display(GLAutoDrawable drawable) {
         GL3 gl = drawable.getGL().getGL3();
         display(gl);
+        GLState.endFrame();
+        Profiler.endFrame();
         this.numberOfDisplay++;
     }
 
@@ -147,7 +178,12 @@ public abstract class Application implements GLEventListener {
     public void init(GLAutoDrawable drawable) {
         GL3 gl = drawable.getGL().getGL3();
         
-        gl.glEnable(GL.GL_BLEND);
+        // A new context starts with the default state, and none of the
+        // buffers made in an earlier one
+        GLState.reset();
+        Shader.reset();
+        UniformBlock.resetBindings();
+        GLState.enable(gl, GL.GL_BLEND);
         gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
         
         init(gl);
@@ -203,6 +239,26 @@ public abstract class Application implements GLEventListener {
     public GLWindow getWindow() {
         return window;
     }
+
+    /**
+     * Get the width of the window, or of the offscreen surface if there is no
+     * window.
+     * 
+     * @return
+     */
+    public int getWidth() {
+        return window != null ? window.getWidth() : width;
+    }
+
+    /**
+     * Get the height of the window, or of the offscreen surface if there is
+     * no window.
+     * 
+     * @return
+     */
+    public int getHeight() {
+        return window != null ? window.getHeight() : height;
+    }
     
     /**
      * Get the default shader associated with this application.
@@ -60,7 +60,7 @@ public abstract class Application3D extends Application {
         
         // Reshape is called here just to make sure that if the shader is changed,
         // then the projection matrix property is set.
-        reshape(gl, getWindow().getWidth(), getWindow().getHeight());
+        reshape(gl, getWidth(), getHeight());
         
         Shader.setPenColor(gl, Color.BLACK);
     }
@@ -68,6 +68,7 @@ public abstract class Application3D extends Application {
     @Override
     public void destroy(GL3 gl) {
         shader.destroy(gl);
+        Shader.destroyCameraBlock(gl);
     }
 
     @Override
@@ -80,10 +81,10 @@ public abstract class Application3D extends Application {
         gl.glPointSize(10);
         
         // Turn on the depth buffer
-        gl.glEnable(GL.GL_DEPTH_TEST);
+        GLState.enable(gl, GL.GL_DEPTH_TEST);
         
         // Cull back faces
-        gl.glEnable(GL.GL_CULL_FACE);
+        GLState.enable(gl, GL.GL_CULL_FACE);
     }
     
     @Override
@@ -0,0 +1,279 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.util.texture.TextureData;
+
+/**
+ * A pool of worker threads for loading assets at startup.
+ *
+ * Everything that does not need OpenGL (reading files, decoding images,
+ * parsing PLY files and building meshes) can be handed to the workers, so
+ * that only the uploads to graphics memory are left for the GL thread. Images
+ * can be prefetched by file name before they are needed; a later call to
+ * {@link #image(GLProfile, String)} picks up the decoded result.
+ *
+ * If the loader has not been started, tasks simply run on the calling thread.
+ *
+ * The loader also keeps the time spent in each phase of loading, so startup
+ * can be profiled. Phases run on the workers are summed across threads, so
+ * they can add up to more than the wall-clock time.
+ *
+ */
+public class AssetLoader {
+
+    private static ExecutorService pool;
+
+    /**
+     * The profile images are decoded for when they are prefetched.
+     */
+    private static GLProfile profile;
+
+    /**
+     * Images that have been prefetched but not yet taken.
+     */
+    private static final Map<String, Future<TextureData>> images =
+            new HashMap<String, Future<TextureData>>();
+
+    /**
+     * The total time and number of tasks in each phase, in the order the
+     * phases were first recorded.
+     */
+    private static final Map<String, long[]> timings =
+            new LinkedHashMap<String, long[]>();
+
+    /**
+     * Start the given number of worker threads.
+     *
+     * @param threads
+     */
+    public static synchronized void start(int threads) {
+        if (pool != null)
+            return;
+        profile = GLProfile.get(GLProfile.GL3);
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "asset-loader-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stop the worker threads once the tasks already submitted are done.
+     * Later tasks run on the calling thread.
+     */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        images.clear();
+    }
+
+    /**
+     * Whether the worker threads are running.
+     * @return
+     */
+    public static synchronized boolean isStarted() {
+        return pool != null;
+    }
+
+    /**
+     * Run a task on a worker thread, timing it as part of the given phase.
+     *
+     * @param phase
+     * @param task
+     * @return The result of the task, once it is done
+     */
+    public static <T> Future<T> submit(final String phase,
+            final Callable<T> task) {
+        Callable<T> timed = new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    time(phase, System.nanoTime() - start);
+                }
+            }
+        };
+        synchronized (AssetLoader.class) {
+            if (pool != null)
+                return pool.submit(timed);
+        }
+        FutureTask<T> future = new FutureTask<T>(timed);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Run a task on a worker thread, timing it as part of the given phase.
+     *
+     * @param phase
+     * @param task
+     * @return A future that is done once the task is done
+     */
+    public static Future<Void> submit(String phase, final Runnable task) {
+        return submit(phase, new Callable<Void>() {
+            @Override
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Wait for a task to finish and get its result. If the task failed, its
+     * exception is thrown here, with checked IOExceptions wrapped in an
+     * UncheckedIOException.
+     *
+     * @param future
+     * @return
+     */
+    public static <T> T await(Future<T> future) {
+        try {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    T result = future.get();
+                    if (interrupted)
+                        Thread.currentThread().interrupt();
+                    return result;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            if (cause instanceof IOException)
+                throw new UncheckedIOException((IOException) cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Start decoding an image file on a worker thread, unless it is already
+     * being decoded. Does nothing if the loader has not been started.
+     *
+     * @param fileName
+     */
+    public static synchronized void prefetchImage(final String fileName) {
+        if (pool == null || images.containsKey(fileName))
+            return;
+        final GLProfile glProfile = profile;
+        images.put(fileName, submit("decode images", new Callable<TextureData>() {
+            @Override
+            public TextureData call() throws IOException {
+                return Texture.decode(glProfile, fileName);
+            }
+        }));
+    }
+
+    /**
+     * Get the decoded image in the given file. If the image was prefetched,
+     * this waits for it to be decoded; otherwise it is decoded on the calling
+     * thread.
+     *
+     * @param glProfile The profile to decode the image for, if it was not
+     * prefetched
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    public static TextureData image(GLProfile glProfile, String fileName)
+            throws IOException {
+        Future<TextureData> future;
+        synchronized (AssetLoader.class) {
+            future = images.remove(fileName);
+        }
+        if (future == null) {
+            long start = System.nanoTime();
+            try {
+                return Texture.decode(glProfile, fileName);
+            } finally {
+                time("decode images", System.nanoTime() - start);
+            }
+        }
+        try {
+            return await(future);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Add to the time spent in a phase.
+     *
+     * @param phase
+     * @param nanos
+     */
+    public static synchronized void time(String phase, long nanos) {
+        long[] timing = timings.get(phase);
+        if (timing == null) {
+            timing = new long[2];
+            timings.put(phase, timing);
+        }
+        timing[0] += nanos;
+        timing[1]++;
+    }
+
+    /**
+     * Forget all recorded times.
+     */
+    public static synchronized void resetTimings() {
+        timings.clear();
+    }
+
+    /**
+     * Get the total time spent in each phase.
+     *
+     * @return The time in nanoseconds of each phase, in the order the phases
+     * were first recorded
+     */
+    public static synchronized Map<String, Long> getTimes() {
+        Map<String, Long> times = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, long[]> e : timings.entrySet())
+            times.put(e.getKey(), e.getValue()[0]);
+        return times;
+    }
+
+    /**
+     * Describe the time spent in each phase, one phase per line.
+     * @return
+     */
+    public static synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> e : timings.entrySet()) {
+            long[] timing = e.getValue();
+            sb.append(String.format("%-16s %9.1f ms (%d)%n", e.getKey(),
+                    timing[0] / 1e6, timing[1]));
+        }
+        return sb.toString();
+    }
+}
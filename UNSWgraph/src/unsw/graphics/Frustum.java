@@ -0,0 +1,73 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+/**
+ * A view frustum, used to cull geometry that cannot be seen.
+ *
+ * The frustum is made of the six clipping planes of a combined projection and
+ * view transform. Its planes are in whatever coordinates that transform is
+ * applied to, e.g. world coordinates for projection * view.
+ *
+ * This class is immutable.
+ *
+ */
+public class Frustum {
+
+    /**
+     * The planes as (a, b, c, d) such that a point (x, y, z) is inside the
+     * plane when ax + by + cz + d >= 0. In order: left, right, bottom, top,
+     * near, far.
+     */
+    private final float[] planes = new float[24];
+
+    /**
+     * Construct the frustum of the given transform.
+     *
+     * @param matrix The projection matrix multiplied by the view matrix (and
+     * the model matrix if the frustum should be in model coordinates).
+     */
+    public Frustum(Matrix4 matrix) {
+        float[] m = matrix.getValues();
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                // Column-major, so row r of column j is m[j*4 + r]
+                float w = m[j*4 + 3];
+                float v = m[j*4 + i];
+                planes[(2*i)*4 + j] = w + v;
+                planes[(2*i + 1)*4 + j] = w - v;
+            }
+        }
+    }
+
+    /**
+     * Determine whether any part of the given axis-aligned box could be inside
+     * the frustum. This is conservative: some boxes near the corners of the
+     * frustum will be reported as visible even though they are not.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @return false if the box is definitely outside the frustum
+     */
+    public boolean intersectsBox(float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ) {
+        for (int p = 0; p < 6; p++) {
+            float a = planes[p*4];
+            float b = planes[p*4 + 1];
+            float c = planes[p*4 + 2];
+            float d = planes[p*4 + 3];
+            // The corner of the box furthest along the plane's normal
+            float x = a >= 0 ? maxX : minX;
+            float y = b >= 0 ? maxY : minY;
+            float z = c >= 0 ? maxZ : minZ;
+            if (a*x + b*y + c*z + d < 0)
+                return false;
+        }
+        return true;
+    }
+}
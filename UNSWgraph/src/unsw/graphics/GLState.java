@@ -0,0 +1,493 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.util.Arrays;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+
+/**
+ * A shadow copy of the OpenGL state UNSWgraph changes most often.
+ *
+ * Binding a buffer or texture, switching program, enabling a capability or
+ * setting a uniform to the value it already has costs a call into the driver
+ * but changes nothing. Calls made through this class are compared with the
+ * shadow copy and skipped if they would not change anything. Uniform values
+ * are shadowed by {@link Shader}, which reports to this class too.
+ *
+ * The shadow copy is only right if every change to the state it covers goes
+ * through this class. Code that changes that state directly should call
+ * {@link #reset()} afterwards. Until a piece of state has been set through
+ * this class its value is unknown, so the first call always goes through.
+ *
+ * The number of calls skipped and made is counted for each frame.
+ *
+ */
+public class GLState {
+
+    /**
+     * Marks a binding whose value is not known.
+     */
+    private static final int UNKNOWN = -1;
+
+    /**
+     * The number of texture units whose bindings are shadowed.
+     */
+    private static final int UNITS = 16;
+
+    /**
+     * The texture targets whose bindings are shadowed.
+     */
+    private static final int[] TARGETS = { GL.GL_TEXTURE_2D,
+            GL2ES3.GL_TEXTURE_2D_ARRAY, GL.GL_TEXTURE_CUBE_MAP };
+
+    /**
+     * The number of vertex attributes whose pointers are shadowed.
+     */
+    private static final int ATTRIBUTES = 16;
+
+    private static int program = UNKNOWN;
+    private static int arrayBuffer = UNKNOWN;
+    private static int elementBuffer = UNKNOWN;
+    private static int activeTexture = UNKNOWN;
+    private static int vertexArray = UNKNOWN;
+
+    /**
+     * The element buffer bound in each vertex array object, indexed by name.
+     * The element buffer binding is part of a vertex array object's state,
+     * unlike the array buffer binding.
+     */
+    private static int[] elementBuffers = new int[0];
+
+    /**
+     * The texture bound to each target of each unit.
+     */
+    private static final int[][] textures = new int[UNITS][TARGETS.length];
+
+    /**
+     * The buffer, size, type, stride and offset of each vertex attribute's
+     * pointer.
+     */
+    private static final long[][] attributes = new long[ATTRIBUTES][];
+
+    /**
+     * The capabilities seen so far, and whether each is enabled.
+     */
+    private static int[] caps = new int[0];
+    private static Boolean[] enabled = new Boolean[0];
+
+    private static float offsetFactor;
+    private static float offsetUnits;
+    private static boolean offsetKnown;
+
+    /**
+     * Incremented whenever the shadow copy is forgotten, so shaders know to
+     * forget the uniform values they shadow.
+     */
+    private static int generation;
+
+    private static int elided;
+    private static int issued;
+    private static int lastElided;
+    private static int lastIssued;
+    private static int draws;
+    private static int lastDraws;
+
+    static {
+        for (int[] unit : textures)
+            Arrays.fill(unit, UNKNOWN);
+    }
+
+    /**
+     * Forget the shadow copy, so that the next call for each piece of state
+     * goes through. This must be called whenever the state is changed
+     * without going through this class, e.g. when a new context is made.
+     */
+    public static void reset() {
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementBuffer = UNKNOWN;
+        activeTexture = UNKNOWN;
+        vertexArray = UNKNOWN;
+        elementBuffers = new int[0];
+        for (int[] unit : textures)
+            Arrays.fill(unit, UNKNOWN);
+        Arrays.fill(attributes, null);
+        caps = new int[0];
+        enabled = new Boolean[0];
+        offsetKnown = false;
+        generation++;
+    }
+
+    /**
+     * The number of times the shadow copy has been forgotten.
+     *
+     * @return
+     */
+    static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Count a call that was skipped.
+     */
+    static void elide() {
+        elided++;
+    }
+
+    /**
+     * Count a call that was made.
+     */
+    static void issue() {
+        issued++;
+    }
+
+    /**
+     * Count a draw call. Draw calls are not counted as issued calls, since
+     * they are never skipped.
+     */
+    public static void countDraw() {
+        draws++;
+    }
+
+    /**
+     * Finish counting calls for the current frame.
+     */
+    public static void endFrame() {
+        lastElided = elided;
+        lastIssued = issued;
+        lastDraws = draws;
+        elided = 0;
+        issued = 0;
+        draws = 0;
+    }
+
+    /**
+     * The number of calls skipped in the last frame, because they would not
+     * have changed anything.
+     *
+     * @return
+     */
+    public static int getElidedCalls() {
+        return lastElided;
+    }
+
+    /**
+     * The number of calls made in the last frame.
+     *
+     * @return
+     */
+    public static int getIssuedCalls() {
+        return lastIssued;
+    }
+
+    /**
+     * The number of draw calls made in the last frame.
+     *
+     * @return
+     */
+    public static int getDrawCalls() {
+        return lastDraws;
+    }
+
+    /**
+     * Use the given program, unless it is already in use.
+     *
+     * @param gl
+     * @param id
+     */
+    public static void useProgram(GL3 gl, int id) {
+        if (program == id) {
+            elided++;
+            return;
+        }
+        gl.glUseProgram(id);
+        program = id;
+        issued++;
+    }
+
+    /**
+     * Delete the given program, forgetting that it is in use so that a
+     * program made later with the same name is used properly.
+     *
+     * @param gl
+     * @param id
+     */
+    public static void deleteProgram(GL3 gl, int id) {
+        gl.glDeleteProgram(id);
+        if (program == id)
+            program = UNKNOWN;
+    }
+
+    /**
+     * Bind a buffer to the given target, unless it is already bound. Only
+     * GL_ARRAY_BUFFER and GL_ELEMENT_ARRAY_BUFFER are shadowed; buffers
+     * bound to other targets are always bound.
+     *
+     * @param gl
+     * @param target
+     * @param buffer
+     */
+    public static void bindBuffer(GL3 gl, int target, int buffer) {
+        if (target == GL.GL_ARRAY_BUFFER) {
+            if (arrayBuffer == buffer) {
+                elided++;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if (target == GL.GL_ELEMENT_ARRAY_BUFFER) {
+            if (elementBuffer == buffer) {
+                elided++;
+                return;
+            }
+            elementBuffer = buffer;
+            if (vertexArray != UNKNOWN) {
+                if (vertexArray >= elementBuffers.length) {
+                    int oldLength = elementBuffers.length;
+                    elementBuffers = Arrays.copyOf(elementBuffers,
+                            Math.max(vertexArray + 1, oldLength * 2));
+                    Arrays.fill(elementBuffers, oldLength, elementBuffers.length, UNKNOWN);
+                }
+                elementBuffers[vertexArray] = buffer;
+            }
+        }
+        gl.glBindBuffer(target, buffer);
+        issued++;
+    }
+
+    /**
+     * Bind a vertex array object, unless it is already bound. This brings in
+     * the element buffer and vertex attributes recorded in it.
+     *
+     * @param gl
+     * @param array The vertex array object, or 0 for none
+     */
+    public static void bindVertexArray(GL3 gl, int array) {
+        if (vertexArray == array) {
+            elided++;
+            return;
+        }
+        gl.glBindVertexArray(array);
+        vertexArray = array;
+        issued++;
+        elementBuffer = array < elementBuffers.length ? elementBuffers[array] : UNKNOWN;
+        // Pointers are only remembered for the vertex array object bound
+        Arrays.fill(attributes, null);
+    }
+
+    /**
+     * Delete a vertex array object, forgetting what was bound in it.
+     *
+     * @param gl
+     * @param array
+     */
+    public static void deleteVertexArray(GL3 gl, int array) {
+        gl.glDeleteVertexArrays(1, new int[] { array }, 0);
+        if (array < elementBuffers.length)
+            elementBuffers[array] = UNKNOWN;
+        if (vertexArray == array) {
+            // Deleting the bound vertex array object binds 0 instead
+            vertexArray = 0;
+            elementBuffer = elementBuffers.length > 0 ? elementBuffers[0] : UNKNOWN;
+            Arrays.fill(attributes, null);
+        }
+    }
+
+    /**
+     * Point a vertex attribute at the given (not normalized) data in the
+     * given buffer, unless it already points there. The buffer is only bound
+     * to GL_ARRAY_BUFFER if the pointer has to be set.
+     *
+     * @param gl
+     * @param index
+     * @param buffer
+     * @param size
+     * @param type
+     * @param stride
+     * @param offset
+     */
+    public static void vertexAttribPointer(GL3 gl, int index, int buffer,
+            int size, int type, int stride, long offset) {
+        long[] attribute = index < ATTRIBUTES ? attributes[index] : null;
+        if (attribute != null && attribute[0] == buffer
+                && attribute[1] == size && attribute[2] == type
+                && attribute[3] == stride && attribute[4] == offset) {
+            elided++;
+            return;
+        }
+        bindBuffer(gl, GL.GL_ARRAY_BUFFER, buffer);
+        gl.glVertexAttribPointer(index, size, type, false, stride, offset);
+        issued++;
+        if (index < ATTRIBUTES) {
+            if (attribute == null) {
+                attribute = new long[5];
+                attributes[index] = attribute;
+            }
+            attribute[0] = buffer;
+            attribute[1] = size;
+            attribute[2] = type;
+            attribute[3] = stride;
+            attribute[4] = offset;
+        }
+    }
+
+    /**
+     * Delete the given buffers, forgetting any bindings of them so that a
+     * buffer made later with the same name is bound properly.
+     *
+     * @param gl
+     * @param buffers
+     */
+    public static void deleteBuffers(GL3 gl, int... buffers) {
+        gl.glDeleteBuffers(buffers.length, buffers, 0);
+        for (int buffer : buffers) {
+            if (arrayBuffer == buffer)
+                arrayBuffer = UNKNOWN;
+            if (elementBuffer == buffer)
+                elementBuffer = UNKNOWN;
+            for (int i = 0; i < elementBuffers.length; i++) {
+                if (elementBuffers[i] == buffer)
+                    elementBuffers[i] = UNKNOWN;
+            }
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                if (attributes[i] != null && attributes[i][0] == buffer)
+                    attributes[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Make the given texture unit active, unless it already is.
+     *
+     * @param gl
+     * @param unit The unit, e.g. GL_TEXTURE0
+     */
+    public static void activeTexture(GL3 gl, int unit) {
+        if (activeTexture == unit) {
+            elided++;
+            return;
+        }
+        gl.glActiveTexture(unit);
+        activeTexture = unit;
+        issued++;
+    }
+
+    /**
+     * Bind a texture to the given target of the active texture unit, unless
+     * it is already bound.
+     *
+     * @param gl
+     * @param target
+     * @param texture
+     */
+    public static void bindTexture(GL3 gl, int target, int texture) {
+        int[] unit = activeTexture == UNKNOWN ? null : unit(activeTexture);
+        int t = target(target);
+        if (unit != null && t >= 0) {
+            if (unit[t] == texture) {
+                elided++;
+                return;
+            }
+            unit[t] = texture;
+        } else if (t >= 0) {
+            // The unit is not known, so neither is what it now has bound
+            for (int[] u : textures)
+                u[t] = UNKNOWN;
+        }
+        gl.glBindTexture(target, texture);
+        issued++;
+    }
+
+    /**
+     * Delete the given texture, forgetting any bindings of it so that a
+     * texture made later with the same name is bound properly.
+     *
+     * @param gl
+     * @param texture
+     */
+    public static void deleteTexture(GL3 gl, int texture) {
+        gl.glDeleteTextures(1, new int[] { texture }, 0);
+        for (int[] unit : textures) {
+            for (int t = 0; t < unit.length; t++) {
+                if (unit[t] == texture)
+                    unit[t] = UNKNOWN;
+            }
+        }
+    }
+
+    private static int[] unit(int unit) {
+        int i = unit - GL.GL_TEXTURE0;
+        return i >= 0 && i < UNITS ? textures[i] : null;
+    }
+
+    private static int target(int target) {
+        for (int i = 0; i < TARGETS.length; i++) {
+            if (TARGETS[i] == target)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Enable a capability, unless it is already enabled.
+     *
+     * @param gl
+     * @param cap
+     */
+    public static void enable(GL3 gl, int cap) {
+        set(gl, cap, true);
+    }
+
+    /**
+     * Disable a capability, unless it is already disabled.
+     *
+     * @param gl
+     * @param cap
+     */
+    public static void disable(GL3 gl, int cap) {
+        set(gl, cap, false);
+    }
+
+    private static void set(GL3 gl, int cap, boolean enable) {
+        int i = 0;
+        while (i < caps.length && caps[i] != cap)
+            i++;
+        if (i == caps.length) {
+            caps = Arrays.copyOf(caps, i + 1);
+            enabled = Arrays.copyOf(enabled, i + 1);
+            caps[i] = cap;
+        } else if (enabled[i] == enable) {
+            elided++;
+            return;
+        }
+        if (enable)
+            gl.glEnable(cap);
+        else
+            gl.glDisable(cap);
+        enabled[i] = enable;
+        issued++;
+    }
+
+    /**
+     * Set the polygon offset, unless it is already set to the given values.
+     *
+     * @param gl
+     * @param factor
+     * @param units
+     */
+    public static void polygonOffset(GL3 gl, float factor, float units) {
+        if (offsetKnown && offsetFactor == factor && offsetUnits == units) {
+            elided++;
+            return;
+        }
+        gl.glPolygonOffset(factor, units);
+        offsetFactor = factor;
+        offsetUnits = units;
+        offsetKnown = true;
+        issued++;
+    }
+
+}
@@ -3,6 +3,7 @@
  */
 package unsw.graphics;
 
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 
 import unsw.graphics.geometry.Point3D;
@@ -209,11 +210,15 @@ public class Matrix4 {
      * @return
      */
     public Matrix4 multiply(Matrix4 mat) {
+        float[] a = values;
+        float[] b = mat.values;
         float[] r = new float[16];
-        for (int x = 0; x < 4; x++) {
-            for (int y = 0; y < 4; y++) {
-                r[x*4 + y] = getRow(y).dotp(mat.getColumn(x));
-            }
+        for (int x = 0; x < 16; x += 4) {
+            float b0 = b[x], b1 = b[x + 1], b2 = b[x + 2], b3 = b[x + 3];
+            r[x] = a[0]*b0 + a[4]*b1 + a[8]*b2 + a[12]*b3;
+            r[x + 1] = a[1]*b0 + a[5]*b1 + a[9]*b2 + a[13]*b3;
+            r[x + 2] = a[2]*b0 + a[6]*b1 + a[10]*b2 + a[14]*b3;
+            r[x + 3] = a[3]*b0 + a[7]*b1 + a[11]*b2 + a[15]*b3;
         }
         return new Matrix4(r);
     }
@@ -255,4 +260,23 @@ public class Matrix4 {
         return Arrays.copyOf(values, 16);
     }
 
+    /**
+     * Copy the values stored in this matrix in column-major order into the
+     * given array, without making a new one.
+     * @param dst
+     */
+    public void get(float[] dst) {
+        System.arraycopy(values, 0, dst, 0, 16);
+    }
+
+    /**
+     * Put the values stored in this matrix in column-major order into the
+     * given buffer, starting at its position. The buffer's position is
+     * advanced past them.
+     * @param dst
+     */
+    public void get(FloatBuffer dst) {
+        dst.put(values);
+    }
+
 }
@@ -0,0 +1,224 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A mutable 4x4 matrix.
+ *
+ * Unlike {@link Matrix4}, every operation changes this matrix in place instead
+ * of making a new one, so code that runs every frame can reuse the same few
+ * matrices without making any garbage. Transformations are applied the same
+ * way as with {@link CoordFrame3D}: m.translate(x, y, z) sets m to m * T.
+ *
+ */
+public class Matrix4f {
+    // Matrix is stored in column-major order to match OpenGL
+    private final float[] values = new float[16];
+
+    /**
+     * Create an identity matrix.
+     */
+    public Matrix4f() {
+        setIdentity();
+    }
+
+    /**
+     * Create a copy of the given matrix.
+     *
+     * @param mat
+     */
+    public Matrix4f(Matrix4 mat) {
+        set(mat);
+    }
+
+    /**
+     * Make this the identity matrix.
+     *
+     * @return this matrix
+     */
+    public Matrix4f setIdentity() {
+        for (int i = 0; i < 16; i++)
+            values[i] = i % 5 == 0 ? 1 : 0;
+        return this;
+    }
+
+    /**
+     * Copy the given matrix into this one.
+     *
+     * @param mat
+     * @return this matrix
+     */
+    public Matrix4f set(Matrix4f mat) {
+        System.arraycopy(mat.values, 0, values, 0, 16);
+        return this;
+    }
+
+    /**
+     * Copy the given matrix into this one.
+     *
+     * @param mat
+     * @return this matrix
+     */
+    public Matrix4f set(Matrix4 mat) {
+        mat.get(values);
+        return this;
+    }
+
+    /**
+     * Get the value in the given row and column.
+     *
+     * @param row
+     * @param column
+     * @return
+     */
+    public float get(int row, int column) {
+        return values[column * 4 + row];
+    }
+
+    /**
+     * Copy the values of this matrix in column-major order into the given
+     * array.
+     *
+     * @param dst
+     */
+    public void get(float[] dst) {
+        System.arraycopy(values, 0, dst, 0, 16);
+    }
+
+    /**
+     * Put the values of this matrix in column-major order into the given
+     * buffer, starting at its position. The buffer's position is advanced past
+     * them.
+     *
+     * @param dst
+     */
+    public void get(FloatBuffer dst) {
+        dst.put(values);
+    }
+
+    /**
+     * Make an immutable copy of this matrix.
+     *
+     * @return
+     */
+    public Matrix4 toMatrix4() {
+        return new Matrix4(values);
+    }
+
+    /**
+     * Multiply this matrix by the given matrix, i.e. set this to this * mat.
+     *
+     * @param mat
+     * @return this matrix
+     */
+    public Matrix4f multiply(Matrix4f mat) {
+        float[] a = values;
+        float[] b = mat.values;
+        float a00 = a[0], a10 = a[1], a20 = a[2], a30 = a[3];
+        float a01 = a[4], a11 = a[5], a21 = a[6], a31 = a[7];
+        float a02 = a[8], a12 = a[9], a22 = a[10], a32 = a[11];
+        float a03 = a[12], a13 = a[13], a23 = a[14], a33 = a[15];
+        // Each column of b is read before the same column of the result is
+        // written, so mat may be this matrix
+        for (int c = 0; c < 16; c += 4) {
+            float b0 = b[c], b1 = b[c + 1], b2 = b[c + 2], b3 = b[c + 3];
+            a[c] = a00 * b0 + a01 * b1 + a02 * b2 + a03 * b3;
+            a[c + 1] = a10 * b0 + a11 * b1 + a12 * b2 + a13 * b3;
+            a[c + 2] = a20 * b0 + a21 * b1 + a22 * b2 + a23 * b3;
+            a[c + 3] = a30 * b0 + a31 * b1 + a32 * b2 + a33 * b3;
+        }
+        return this;
+    }
+
+    /**
+     * Translate by the given vector, i.e. set this to this * T.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return this matrix
+     */
+    public Matrix4f translate(float x, float y, float z) {
+        float[] m = values;
+        for (int r = 0; r < 4; r++)
+            m[12 + r] += m[r] * x + m[4 + r] * y + m[8 + r] * z;
+        return this;
+    }
+
+    /**
+     * Rotate by the given degrees around the x-axis.
+     *
+     * @param degrees
+     * @return this matrix
+     */
+    public Matrix4f rotateX(float degrees) {
+        double radians = Math.toRadians(degrees);
+        rotate(4, 8, (float) Math.cos(radians), (float) Math.sin(radians));
+        return this;
+    }
+
+    /**
+     * Rotate by the given degrees around the y-axis.
+     *
+     * @param degrees
+     * @return this matrix
+     */
+    public Matrix4f rotateY(float degrees) {
+        double radians = Math.toRadians(degrees);
+        rotate(8, 0, (float) Math.cos(radians), (float) Math.sin(radians));
+        return this;
+    }
+
+    /**
+     * Rotate by the given degrees around the z-axis.
+     *
+     * @param degrees
+     * @return this matrix
+     */
+    public Matrix4f rotateZ(float degrees) {
+        double radians = Math.toRadians(degrees);
+        rotate(0, 4, (float) Math.cos(radians), (float) Math.sin(radians));
+        return this;
+    }
+
+    /**
+     * Rotate the two columns starting at the given indices into each other:
+     * u becomes cos * u + sin * v and v becomes cos * v - sin * u.
+     */
+    private void rotate(int u, int v, float cos, float sin) {
+        float[] m = values;
+        for (int r = 0; r < 4; r++) {
+            float mu = m[u + r];
+            float mv = m[v + r];
+            m[u + r] = cos * mu + sin * mv;
+            m[v + r] = cos * mv - sin * mu;
+        }
+    }
+
+    /**
+     * Scale by the given amount in the x, y, and z directions.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return this matrix
+     */
+    public Matrix4f scale(float x, float y, float z) {
+        float[] m = values;
+        for (int r = 0; r < 4; r++) {
+            m[r] *= x;
+            m[4 + r] *= y;
+            m[8 + r] *= z;
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return toMatrix4().toString();
+    }
+
+}
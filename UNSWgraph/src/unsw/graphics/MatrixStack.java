@@ -0,0 +1,140 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.util.Arrays;
+
+/**
+ * A stack of mutable matrices, for building up transformations through a
+ * hierarchy of objects without making garbage.
+ *
+ * The matrix on top is the current one, and all transformations apply to it.
+ * {@link #push()} saves a copy of it for {@link #pop()} to go back to. The
+ * matrices are reused, so the stack only allocates when it gets deeper than
+ * it has been before.
+ *
+ */
+public class MatrixStack {
+
+    private Matrix4f[] matrices;
+    private int top;
+
+    /**
+     * Create a stack holding just the identity matrix.
+     */
+    public MatrixStack() {
+        matrices = new Matrix4f[8];
+        for (int i = 0; i < matrices.length; i++)
+            matrices[i] = new Matrix4f();
+        top = 0;
+    }
+
+    /**
+     * Get the current matrix. It stays the current matrix until the next
+     * push or pop, and is reused after that.
+     *
+     * @return
+     */
+    public Matrix4f top() {
+        return matrices[top];
+    }
+
+    /**
+     * Save the current matrix, by pushing a copy of it.
+     *
+     * @return this stack
+     */
+    public MatrixStack push() {
+        if (top + 1 == matrices.length) {
+            int oldLength = matrices.length;
+            matrices = Arrays.copyOf(matrices, oldLength * 2);
+            for (int i = oldLength; i < matrices.length; i++)
+                matrices[i] = new Matrix4f();
+        }
+        matrices[top + 1].set(matrices[top]);
+        top++;
+        return this;
+    }
+
+    /**
+     * Go back to the matrix saved by the matching {@link #push()}.
+     *
+     * @return this stack
+     */
+    public MatrixStack pop() {
+        if (top == 0)
+            throw new IllegalStateException("Matrix stack underflow");
+        top--;
+        return this;
+    }
+
+    /**
+     * Replace the current matrix with the identity.
+     *
+     * @return this stack
+     */
+    public MatrixStack loadIdentity() {
+        matrices[top].setIdentity();
+        return this;
+    }
+
+    /**
+     * Replace the current matrix with the given matrix.
+     *
+     * @param mat
+     * @return this stack
+     */
+    public MatrixStack load(Matrix4 mat) {
+        matrices[top].set(mat);
+        return this;
+    }
+
+    /**
+     * Replace the current matrix with the given matrix.
+     *
+     * @param mat
+     * @return this stack
+     */
+    public MatrixStack load(Matrix4f mat) {
+        matrices[top].set(mat);
+        return this;
+    }
+
+    /**
+     * Multiply the current matrix by the given matrix.
+     *
+     * @param mat
+     * @return this stack
+     */
+    public MatrixStack multiply(Matrix4f mat) {
+        matrices[top].multiply(mat);
+        return this;
+    }
+
+    public MatrixStack translate(float x, float y, float z) {
+        matrices[top].translate(x, y, z);
+        return this;
+    }
+
+    public MatrixStack rotateX(float degrees) {
+        matrices[top].rotateX(degrees);
+        return this;
+    }
+
+    public MatrixStack rotateY(float degrees) {
+        matrices[top].rotateY(degrees);
+        return this;
+    }
+
+    public MatrixStack rotateZ(float degrees) {
+        matrices[top].rotateZ(degrees);
+        return this;
+    }
+
+    public MatrixStack scale(float x, float y, float z) {
+        matrices[top].scale(x, y, z);
+        return this;
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.opengl.GL3;
+
+/**
+ * Times named phases of each frame, e.g. drawing the terrain, on both the CPU
+ * and the GPU.
+ *
+ * The code for a phase is wrapped in {@link #begin(GL3, Scope)} and
+ * {@link #end(GL3, Scope)}. Its CPU time is measured with System.nanoTime()
+ * and its GPU time with a GL_TIME_ELAPSED query. Query results are read a few
+ * frames later, once the GPU has caught up, so reading them does not make the
+ * CPU wait. The times for each scope over the last few hundred frames are
+ * kept in a {@link RollingHistogram}.
+ *
+ * The times are also passed to a {@link ProfilerEvents} as they are measured,
+ * if one is on the class path. The one in jfr/src emits each scope as Java
+ * Flight Recorder events while a recording is running: the CPU time as an
+ * event spanning the scope, and the GPU time as a separate event once it is
+ * known.
+ *
+ * Timer queries can't be nested, so only one scope can be open at a time, and
+ * each scope can be timed at most once a frame. Profiling is off until
+ * {@link #setEnabled(boolean)} is called, and costs nothing while it is off.
+ *
+ */
+public class Profiler {
+
+    /**
+     * The number of frames a query's result is left before it is read.
+     */
+    private static final int LATENCY = 3;
+
+    /**
+     * The number of frames kept in each histogram.
+     */
+    private static final int WINDOW = 600;
+
+    /**
+     * The name of the class the {@link ProfilerEvents} are made from.
+     */
+    public static final String EVENTS_CLASS = "unsw.graphics.jfr.FlightRecorderEvents";
+
+    /**
+     * Where the times are passed as they are measured, or null if there is
+     * nowhere.
+     */
+    private static final ProfilerEvents events = loadEvents();
+
+    /**
+     * A named phase of a frame, with the times it took in the last frames.
+     */
+    public static final class Scope {
+        private final String name;
+        private final RollingHistogram cpuTimes = new RollingHistogram(WINDOW);
+        private final RollingHistogram gpuTimes = new RollingHistogram(WINDOW);
+
+        // One query for each frame in flight, and the frame it is timing or
+        // -1 if its result has been read
+        private final int[] queries = new int[LATENCY];
+        private final long[] queryFrames = new long[LATENCY];
+
+        private long lastFrame = -1;
+        private long start;
+        private Object event;
+
+        private Scope(String name) {
+            this.name = name;
+            for (int i = 0; i < LATENCY; i++)
+                queryFrames[i] = -1;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The CPU time of this scope in each of the last frames
+         */
+        public RollingHistogram getCpuTimes() {
+            return cpuTimes;
+        }
+
+        /**
+         * @return The GPU time of this scope in each of the last frames whose
+         * results have been read
+         */
+        public RollingHistogram getGpuTimes() {
+            return gpuTimes;
+        }
+    }
+
+    private static final Map<String, Scope> scopes = new LinkedHashMap<String, Scope>();
+
+    private static boolean enabled = false;
+
+    /**
+     * Whether the context has timer queries, or null if it hasn't been
+     * checked yet.
+     */
+    private static Boolean timerQueries;
+
+    private static Scope open;
+    private static long frame;
+
+    private static final int[] names = new int[LATENCY];
+    private static final long[] result = new long[1];
+
+    /**
+     * Get the scope with the given name, making it if need be.
+     *
+     * @param name
+     * @return
+     */
+    public static synchronized Scope scope(String name) {
+        Scope scope = scopes.get(name);
+        if (scope == null) {
+            scope = new Scope(name);
+            scopes.put(name, scope);
+        }
+        return scope;
+    }
+
+    /**
+     * @return Every scope, in the order they were made
+     */
+    public static synchronized List<Scope> getScopes() {
+        return Collections.unmodifiableList(new ArrayList<Scope>(scopes.values()));
+    }
+
+    public static void setEnabled(boolean enabled) {
+        if (!enabled && open != null)
+            throw new IllegalStateException("Scope " + open.name + " is still open");
+        Profiler.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing a scope.
+     *
+     * @param gl
+     * @param scope
+     */
+    public static void begin(GL3 gl, Scope scope) {
+        if (!enabled)
+            return;
+        if (open != null)
+            throw new IllegalStateException("Scope " + open.name + " is still open");
+        if (scope.lastFrame == frame)
+            throw new IllegalStateException("Scope " + scope.name
+                    + " has already been timed this frame");
+        open = scope;
+        scope.lastFrame = frame;
+
+        if (hasTimerQueries(gl)) {
+            int slot = (int) (frame % LATENCY);
+            if (scope.queries[0] == 0) {
+                gl.glGenQueries(LATENCY, names, 0);
+                System.arraycopy(names, 0, scope.queries, 0, LATENCY);
+            } else if (scope.queryFrames[slot] >= 0) {
+                // This query was used LATENCY frames ago, so its result
+                // should be ready by now
+                read(gl, scope, slot);
+            }
+            gl.glBeginQuery(GL3.GL_TIME_ELAPSED, scope.queries[slot]);
+            scope.queryFrames[slot] = frame;
+        }
+        if (events != null)
+            scope.event = events.begin(scope.name, frame);
+        scope.start = System.nanoTime();
+    }
+
+    /**
+     * Finish timing a scope.
+     *
+     * @param gl
+     * @param scope The scope that is open
+     */
+    public static void end(GL3 gl, Scope scope) {
+        if (!enabled)
+            return;
+        long nanos = System.nanoTime() - scope.start;
+        if (open != scope)
+            throw new IllegalStateException("Scope " + scope.name + " is not open");
+        open = null;
+
+        if (hasTimerQueries(gl))
+            gl.glEndQuery(GL3.GL_TIME_ELAPSED);
+        scope.cpuTimes.add(nanos);
+        if (scope.event != null) {
+            events.end(scope.event);
+            scope.event = null;
+        }
+    }
+
+    /**
+     * Record the result of a query.
+     */
+    private static void read(GL3 gl, Scope scope, int slot) {
+        gl.glGetQueryObjecti64v(scope.queries[slot], GL3.GL_QUERY_RESULT, result, 0);
+        scope.gpuTimes.add(result[0]);
+        if (events != null)
+            events.gpu(scope.name, scope.queryFrames[slot], result[0]);
+        scope.queryFrames[slot] = -1;
+    }
+
+    /**
+     * Finish timing the current frame.
+     */
+    public static void endFrame() {
+        if (open != null)
+            throw new IllegalStateException("Scope " + open.name + " is still open");
+        frame++;
+    }
+
+    /**
+     * Forget the times recorded so far.
+     */
+    public static synchronized void reset() {
+        for (Scope scope : scopes.values()) {
+            scope.cpuTimes.clear();
+            scope.gpuTimes.clear();
+        }
+    }
+
+    /**
+     * Delete the queries. Results that haven't been read yet are lost.
+     *
+     * @param gl
+     */
+    public static synchronized void destroy(GL3 gl) {
+        for (Scope scope : scopes.values()) {
+            if (scope.queries[0] != 0)
+                gl.glDeleteQueries(LATENCY, scope.queries, 0);
+            for (int i = 0; i < LATENCY; i++) {
+                scope.queries[i] = 0;
+                scope.queryFrames[i] = -1;
+            }
+        }
+        timerQueries = null;
+    }
+
+    /**
+     * Describe the times of each scope that has been timed, with the
+     * histograms of its CPU and GPU times.
+     *
+     * @return
+     */
+    public static synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %-4s %9s %9s %9s %9s %9s%n", "scope", "",
+                "mean ms", "p50", "p95", "p99", "max"));
+        for (Scope scope : scopes.values()) {
+            if (scope.cpuTimes.getCount() == 0)
+                continue;
+            appendSummary(sb, scope.name, "cpu", scope.cpuTimes);
+            appendSummary(sb, "", "gpu", scope.gpuTimes);
+        }
+        for (Scope scope : scopes.values()) {
+            if (scope.cpuTimes.getCount() == 0)
+                continue;
+            sb.append(String.format("%n%s cpu%n", scope.name));
+            sb.append(scope.cpuTimes);
+            if (scope.gpuTimes.getCount() > 0) {
+                sb.append(String.format("%s gpu%n", scope.name));
+                sb.append(scope.gpuTimes);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendSummary(StringBuilder sb, String name, String clock,
+            RollingHistogram times) {
+        if (times.getCount() == 0) {
+            sb.append(String.format("%-16s %-4s %9s%n", name, clock, "-"));
+            return;
+        }
+        sb.append(String.format("%-16s %-4s %9.3f %9.3f %9.3f %9.3f %9.3f%n", name,
+                clock, times.getMean() / 1e6, times.getPercentile(50) / 1e6,
+                times.getPercentile(95) / 1e6, times.getPercentile(99) / 1e6,
+                times.getMax() / 1e6));
+    }
+
+    /**
+     * Timer queries are core in OpenGL 3.3, and an extension before that.
+     */
+    private static boolean hasTimerQueries(GL3 gl) {
+        if (timerQueries == null)
+            timerQueries = gl.isExtensionAvailable("GL_VERSION_3_3")
+                    || gl.isExtensionAvailable("GL_ARB_timer_query");
+        return timerQueries;
+    }
+
+    /**
+     * Make the events from {@link #EVENTS_CLASS}, or return null if it is not
+     * on the class path or can't be loaded, e.g. because the JVM has no
+     * jdk.jfr.
+     */
+    private static ProfilerEvents loadEvents() {
+        try {
+            return (ProfilerEvents) Class.forName(EVENTS_CLASS)
+                    .getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
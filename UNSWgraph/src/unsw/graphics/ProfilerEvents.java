@@ -0,0 +1,41 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+/**
+ * Receives the times {@link Profiler} measures as they are measured, e.g. to
+ * emit them as Java Flight Recorder events.
+ *
+ * The profiler makes one with a public no-argument constructor from the class
+ * named by {@link Profiler#EVENTS_CLASS}, if that class is on the class path.
+ *
+ */
+public interface ProfilerEvents {
+
+    /**
+     * Start timing a scope.
+     *
+     * @param scope
+     * @param frame
+     * @return The event to pass to {@link #end(Object)}, or null if the scope
+     * is not being recorded
+     */
+    Object begin(String scope, long frame);
+
+    /**
+     * Finish timing a scope.
+     *
+     * @param event An event returned by {@link #begin(String, long)}
+     */
+    void end(Object event);
+
+    /**
+     * Record the GPU time of a scope in an earlier frame.
+     *
+     * @param scope
+     * @param frame
+     * @param nanos
+     */
+    void gpu(String scope, long frame, long nanos);
+}
@@ -0,0 +1,442 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+
+/**
+ * Records the OpenGL calls made through a GL3, for counting the work a frame
+ * does and checking it against a budget.
+ *
+ * A recorder makes GL3 objects that count every call made through them by
+ * name, along with the draw calls, the vertices drawn, the calls that change
+ * state and the bytes uploaded to buffers and textures. They come in two
+ * kinds:
+ *   - {@link #wrap(GL3)} wraps a real GL3, like the debug and trace pipelines
+ *     made by GLPipelineFactory. Every call is passed on to it.
+ *   - {@link #standalone()} makes a GL3 with no context behind it, for tests
+ *     on machines without OpenGL. Calls do nothing, except that names are
+ *     handed out by glGen*() and glCreate*(), and shaders and programs
+ *     report that they compiled and linked.
+ *
+ * The standalone GL3 has no GLContext or GLProfile, so anything that needs
+ * those cannot use it. In UNSWgraph that is compiling a {@link Shader} and
+ * loading a {@link Texture} from an image. Meshes, buffers, the state in
+ * {@link GLState} and the static Shader setters all work.
+ *
+ * Counts build up until {@link #reset()} is called, so call that at the start
+ * of each frame to count the frame on its own.
+ *
+ */
+public class RecordingGL {
+
+    /**
+     * The prefixes of the names of the calls that draw.
+     */
+    private static final String[] DRAW_PREFIXES = { "glDrawArrays",
+            "glDrawElements", "glDrawRangeElements", "glMultiDraw" };
+
+    /**
+     * The prefixes of the names of the calls that change state.
+     */
+    private static final String[] STATE_PREFIXES = { "glBind", "glUseProgram",
+            "glEnable", "glDisable", "glActiveTexture", "glVertexAttribPointer",
+            "glVertexAttribDivisor", "glUniform", "glPolygonOffset",
+            "glBlendFunc", "glDepthFunc", "glDepthMask", "glCullFace",
+            "glViewport", "glClearColor", "glPixelStore", "glTexParameter",
+            "glPointSize", "glDrawBuffer" };
+
+    private final Map<String, long[]> counts = new HashMap<String, long[]>();
+    private long calls;
+    private long drawCalls;
+    private long vertices;
+    private long stateChanges;
+    private long bytesUploaded;
+
+    // The last name handed out by a standalone GL3
+    private int lastName;
+
+    private PrintStream trace;
+
+    /**
+     * Make a GL3 that records every call made through it and then passes it
+     * on to the given GL3.
+     *
+     * @param downstream
+     * @return
+     */
+    public GL3 wrap(GL3 downstream) {
+        return proxy(downstream);
+    }
+
+    /**
+     * Make a GL3 that records every call made through it, without any OpenGL
+     * context behind it.
+     *
+     * @return
+     */
+    public GL3 standalone() {
+        return proxy(null);
+    }
+
+    private GL3 proxy(final GL3 downstream) {
+        return (GL3) Proxy.newProxyInstance(GL3.class.getClassLoader(),
+                new Class<?>[] { GL3.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        return call(proxy, downstream, method, args);
+                    }
+                });
+    }
+
+    /**
+     * Print every call made from now on to the given stream, or stop printing
+     * them if it is null.
+     *
+     * @param trace
+     */
+    public void setTrace(PrintStream trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Forget all the counts.
+     */
+    public void reset() {
+        counts.clear();
+        calls = 0;
+        drawCalls = 0;
+        vertices = 0;
+        stateChanges = 0;
+        bytesUploaded = 0;
+    }
+
+    /**
+     * The number of calls made to GL functions with the given name, e.g.
+     * "glBindBuffer", including all their overloads.
+     *
+     * @param name
+     * @return
+     */
+    public long getCalls(String name) {
+        long[] count = counts.get(name);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * The number of calls made to GL functions.
+     *
+     * @return
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * The number of draw calls.
+     *
+     * @return
+     */
+    public long getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * The number of vertices drawn, counting each instance of an instanced
+     * draw.
+     *
+     * @return
+     */
+    public long getVertices() {
+        return vertices;
+    }
+
+    /**
+     * The number of calls that change state, like binding, enabling and
+     * setting uniforms.
+     *
+     * @return
+     */
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * The number of bytes uploaded to buffers and textures. Storage made
+     * without data, e.g. by glTexImage3D() with null pixels, is not counted.
+     *
+     * @return
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * Summarise the counts, with the number of calls to each function from
+     * the most called to the least.
+     *
+     * @return
+     */
+    public String report() {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(
+                counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            @Override
+            public int compare(Map.Entry<String, long[]> a,
+                    Map.Entry<String, long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d calls, %d draw calls, %d vertices, "
+                + "%d state changes, %d bytes uploaded%n", calls, drawCalls,
+                vertices, stateChanges, bytesUploaded));
+        for (Map.Entry<String, long[]> entry : entries)
+            sb.append(String.format("%10d %s%n", entry.getValue()[0],
+                    entry.getKey()));
+        return sb.toString();
+    }
+
+    private Object call(Object proxy, GL3 downstream, Method method,
+            Object[] args) throws Throwable {
+        String name = method.getName();
+        if (method.getDeclaringClass() == Object.class)
+            return object(proxy, method, args);
+        if (name.startsWith("gl"))
+            record(name, args);
+        if (name.equals("getDownstreamGL") && downstream != null)
+            return downstream;
+        // Keep calls on GLs got from this one recorded too
+        Class<?> type = method.getReturnType();
+        if (name.startsWith("get") && type.isInterface()
+                && GL.class.isAssignableFrom(type) && type.isInstance(proxy)
+                && !name.equals("getDownstreamGL"))
+            return proxy;
+
+        if (downstream != null) {
+            try {
+                return method.invoke(downstream, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+        return standalone(proxy, name, type, args);
+    }
+
+    private void record(String name, Object[] args) {
+        long[] count = counts.get(name);
+        if (count == null) {
+            count = new long[1];
+            counts.put(name, count);
+        }
+        count[0]++;
+        calls++;
+
+        if (startsWithAny(name, DRAW_PREFIXES)) {
+            drawCalls++;
+            vertices += drawnVertices(name, args);
+        } else if (name.equals("glBufferData")) {
+            // Without data, only storage is made
+            if (args[2] != null)
+                bytesUploaded += ((Number) args[1]).longValue();
+        } else if (name.equals("glBufferSubData")) {
+            bytesUploaded += ((Number) args[2]).longValue();
+        } else if (name.equals("glTexImage2D")) {
+            if (args[8] != null)
+                bytesUploaded += texels(args, 3, 4, -1) * texelSize(args, 6);
+        } else if (name.equals("glTexImage3D")) {
+            if (args[9] != null)
+                bytesUploaded += texels(args, 3, 4, 5) * texelSize(args, 7);
+        } else if (name.equals("glTexSubImage2D")) {
+            bytesUploaded += texels(args, 4, 5, -1) * texelSize(args, 6);
+        } else if (name.equals("glTexSubImage3D")) {
+            bytesUploaded += texels(args, 5, 6, 7) * texelSize(args, 8);
+        } else {
+            if (startsWithAny(name, STATE_PREFIXES))
+                stateChanges++;
+        }
+
+        if (trace != null)
+            trace.println(describe(name, args));
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private static long drawnVertices(String name, Object[] args) {
+        if (name.equals("glDrawArrays"))
+            return (Integer) args[2];
+        if (name.equals("glDrawElements"))
+            return (Integer) args[1];
+        if (name.equals("glDrawArraysInstanced"))
+            return (long) (Integer) args[2] * (Integer) args[3];
+        if (name.equals("glDrawElementsInstanced"))
+            return (long) (Integer) args[1] * (Integer) args[4];
+        return 0;
+    }
+
+    /**
+     * The number of texels given by the width, height and (if depth is not
+     * -1) depth arguments at the given indices.
+     */
+    private static long texels(Object[] args, int width, int height, int depth) {
+        long n = (long) (Integer) args[width] * (Integer) args[height];
+        if (depth >= 0)
+            n *= (Integer) args[depth];
+        return n;
+    }
+
+    /**
+     * The size in bytes of a texel given by the format argument at the given
+     * index and the type argument after it.
+     */
+    private static int texelSize(Object[] args, int format) {
+        int components;
+        switch ((Integer) args[format]) {
+        case GL2ES2.GL_RED:
+        case GL2ES2.GL_DEPTH_COMPONENT:
+            components = 1;
+            break;
+        case GL2ES2.GL_RG:
+            components = 2;
+            break;
+        case GL.GL_RGB:
+        case GL2ES3.GL_BGR:
+            components = 3;
+            break;
+        default:
+            components = 4;
+        }
+        switch ((Integer) args[format + 1]) {
+        case GL.GL_UNSIGNED_BYTE:
+        case GL.GL_BYTE:
+            return components;
+        case GL.GL_UNSIGNED_SHORT:
+        case GL.GL_SHORT:
+        case GL.GL_HALF_FLOAT:
+            return components * 2;
+        case GL.GL_FLOAT:
+        case GL.GL_UNSIGNED_INT:
+        case GL2ES2.GL_INT:
+            return components * 4;
+        default:
+            // Packed types hold a whole texel
+            return 4;
+        }
+    }
+
+    /**
+     * What a standalone GL3 returns from a call.
+     */
+    private Object standalone(Object proxy, String name, Class<?> type,
+            Object[] args) {
+        if (name.startsWith("glGen")) {
+            if (args.length == 3 && args[1] instanceof int[]) {
+                int[] names = (int[]) args[1];
+                for (int i = 0; i < (Integer) args[0]; i++)
+                    names[(Integer) args[2] + i] = ++lastName;
+            } else if (args.length == 2 && args[1] instanceof IntBuffer) {
+                IntBuffer names = (IntBuffer) args[1];
+                for (int i = 0; i < (Integer) args[0]; i++)
+                    names.put(names.position() + i, ++lastName);
+            }
+        } else if (name.equals("glCreateProgram") || name.equals("glCreateShader")) {
+            return ++lastName;
+        } else if (name.equals("glGetShaderiv") || name.equals("glGetProgramiv")) {
+            // Everything compiles, links and validates
+            int pname = (Integer) args[1];
+            if (pname == GL2ES2.GL_COMPILE_STATUS || pname == GL2ES2.GL_LINK_STATUS
+                    || pname == GL2ES2.GL_VALIDATE_STATUS) {
+                if (args[2] instanceof int[])
+                    ((int[]) args[2])[(Integer) args[3]] = GL.GL_TRUE;
+                else
+                    ((IntBuffer) args[2]).put(((IntBuffer) args[2]).position(), GL.GL_TRUE);
+            }
+        } else if (name.equals("glGetUniformLocation")
+                || name.equals("glGetAttribLocation")) {
+            return -1;
+        } else if (name.equals("glCheckFramebufferStatus")) {
+            return GL.GL_FRAMEBUFFER_COMPLETE;
+        } else if (name.equals("glGetString")) {
+            return "RecordingGL";
+        } else if (name.equals("isGL3") || name.equals("isGL3core")
+                || name.equals("isGL2GL3") || name.equals("isGL2ES2")
+                || name.equals("isGL2ES3") || name.equals("isGL3ES3")
+                || name.equals("isGLcore") || name.equals("hasGLSL")
+                || name.equals("isFunctionAvailable")) {
+            return true;
+        } else if (name.equals("getRootGL") || name.equals("getDownstreamGL")) {
+            return proxy;
+        }
+
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0.0;
+        if (type == short.class)
+            return (short) 0;
+        if (type == byte.class)
+            return (byte) 0;
+        return null;
+    }
+
+    private static Object object(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("equals"))
+            return proxy == args[0];
+        if (name.equals("hashCode"))
+            return System.identityHashCode(proxy);
+        return "RecordingGL@" + Integer.toHexString(System.identityHashCode(proxy));
+    }
+
+    private static String describe(String name, Object[] args) {
+        StringBuilder sb = new StringBuilder(name).append('(');
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0)
+                    sb.append(", ");
+                Object arg = args[i];
+                if (arg instanceof Buffer)
+                    sb.append(arg.getClass().getSimpleName()).append('[')
+                            .append(((Buffer) arg).remaining()).append(']');
+                else if (arg != null && arg.getClass().isArray())
+                    sb.append(arg.getClass().getComponentType()).append('[')
+                            .append(java.lang.reflect.Array.getLength(arg)).append(']');
+                else
+                    sb.append(arg);
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+}
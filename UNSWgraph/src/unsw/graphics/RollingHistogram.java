@@ -0,0 +1,173 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+/**
+ * A histogram of the last few durations recorded, e.g. the time a phase of
+ * drawing took in each of the last few hundred frames.
+ *
+ * Durations are counted in buckets that grow exponentially, four to each
+ * doubling from about 1 us up to about 2 s. A percentile is given as the upper
+ * bound of its bucket, so it is at most 25% above the true value. Adding a
+ * duration never allocates, and the mean and percentiles can be queried every
+ * frame.
+ *
+ */
+public class RollingHistogram {
+
+    // The first bucket holds durations below 2^MIN_OCTAVE ns, the last those
+    // of 2^(MAX_OCTAVE + 1) ns or more, and the rest split each octave between
+    private static final int MIN_OCTAVE = 10;
+    private static final int MAX_OCTAVE = 30;
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = (MAX_OCTAVE - MIN_OCTAVE + 1) * SUB_BUCKETS + 2;
+
+    // The durations in the window, in nanoseconds, oldest first from next
+    // once the window is full
+    private final long[] samples;
+    private int next;
+    private int count;
+    private long sum;
+
+    private final int[] buckets = new int[BUCKETS];
+
+    /**
+     * Create an empty histogram.
+     *
+     * @param window The number of durations kept
+     */
+    public RollingHistogram(int window) {
+        if (window <= 0)
+            throw new IllegalArgumentException("The window must be positive");
+        samples = new long[window];
+    }
+
+    /**
+     * Add a duration, forgetting the oldest one if the window is full.
+     *
+     * @param nanos
+     */
+    public void add(long nanos) {
+        if (count == samples.length) {
+            long oldest = samples[next];
+            buckets[bucket(oldest)]--;
+            sum -= oldest;
+        } else {
+            count++;
+        }
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        buckets[bucket(nanos)]++;
+        sum += nanos;
+    }
+
+    /**
+     * Forget every duration.
+     */
+    public void clear() {
+        next = 0;
+        count = 0;
+        sum = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = 0;
+    }
+
+    /**
+     * @return The number of durations in the window
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The mean duration in nanoseconds, or 0 if there are none
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / (double) count;
+    }
+
+    /**
+     * @return The longest duration in nanoseconds, or 0 if there are none
+     */
+    public long getMax() {
+        long max = 0;
+        for (int i = 0; i < count; i++)
+            max = Math.max(max, samples[i]);
+        return max;
+    }
+
+    /**
+     * Get the upper bound of the bucket holding the nearest-rank percentile.
+     *
+     * @param p The percentile, from 0 to 100
+     * @return The percentile in nanoseconds, or 0 if there are no durations
+     */
+    public long getPercentile(double p) {
+        if (count == 0)
+            return 0;
+        int rank = Math.max((int) Math.ceil(p / 100 * count), 1);
+        int seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * The bucket a duration is counted in.
+     */
+    private static int bucket(long nanos) {
+        if (nanos < 1L << MIN_OCTAVE)
+            return 0;
+        int octave = 63 - Long.numberOfLeadingZeros(nanos);
+        if (octave > MAX_OCTAVE)
+            return BUCKETS - 1;
+        // The two bits after the highest pick the bucket within the octave
+        int sub = (int) (nanos >> (octave - 2)) & 3;
+        return 1 + (octave - MIN_OCTAVE) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The smallest duration in nanoseconds that is past the given bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket == 0)
+            return 1L << MIN_OCTAVE;
+        if (bucket == BUCKETS - 1)
+            return Long.MAX_VALUE;
+        int octave = MIN_OCTAVE + (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (octave - 2);
+    }
+
+    /**
+     * Draw the non-empty range of buckets as bars, one bucket per line.
+     */
+    @Override
+    public String toString() {
+        int first = 0;
+        while (first < BUCKETS && buckets[first] == 0)
+            first++;
+        int last = BUCKETS - 1;
+        while (last > first && buckets[last] == 0)
+            last--;
+        int most = 0;
+        for (int i = first; i <= last; i++)
+            most = Math.max(most, buckets[i]);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            long upper = upperBound(i);
+            String bound = upper == Long.MAX_VALUE ? "more" : String.format("%.4g", upper / 1e6);
+            sb.append(String.format("  < %9s ms %6d ", bound, buckets[i]));
+            int width = most == 0 ? 0 : (int) Math.ceil(40.0 * buckets[i] / most);
+            for (int j = 0; j < width; j++)
+                sb.append('#');
+            sb.append(String.format("%n"));
+        }
+        return sb.toString();
+    }
+}
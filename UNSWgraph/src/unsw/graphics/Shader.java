@@ -4,8 +4,13 @@
 package unsw.graphics;
 
 import java.awt.Color;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.GLBuffers;
 import com.jogamp.opengl.util.glsl.ShaderCode;
 import com.jogamp.opengl.util.glsl.ShaderProgram;
 
@@ -25,6 +30,23 @@ import unsw.graphics.geometry.Point3D;
  *   - "uniform mat4 model_matrix"
  *   - "uniform mat4 view_matrix"
  *   - "uniform mat4 proj_matrix"
+ * The view and projection matrices can instead be declared in the block
+ *   - "layout(std140) uniform Camera { mat4 view_matrix; mat4 proj_matrix; }"
+ * which is shared by all the shaders that declare it, so the matrices are
+ * only uploaded once however many shaders use them.
+ * 
+ * Every uniform block a shader declares is bound to the binding point of
+ * the {@link UniformBlock} with the same name.
+ * 
+ * The locations of a shader's uniforms are looked up once, when it is linked.
+ * The static setters set uniforms of the shader most recently passed to
+ * {@link #use(GL3)}. For uniforms that are set often, get a {@link Uniform}
+ * handle once with {@link #uniform(String)} and use the setters that take a
+ * handle, which need neither a string lookup nor a GL query.
+ * 
+ * Each shader also remembers the values its uniforms were last set to, and
+ * setting a uniform to the value it already has is skipped (see
+ * {@link GLState}).
  * 
  * @author Robert Clifton-Everest
  *
@@ -53,8 +75,103 @@ public class Shader {
      */
     public static final int COLOR = 3;
 
+    /**
+     * The per-instance model matrix attribute for use with glAttribPointer.
+     * 
+     * A matrix attribute takes up one attribute location per column, so this
+     * attribute uses this location and the three after it.
+     */
+    public static final int INSTANCE_MATRIX = 4;
+
+    /**
+     * A uniform variable, identified by name, whose location in each shader
+     * is cached by that shader. The same handle works with any shader.
+     */
+    public static final class Uniform {
+        private final String name;
+        private final int index;
+
+        private Uniform(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * All uniform handles made so far, by name.
+     */
+    private static final Map<String, Uniform> handles = new HashMap<String, Uniform>();
+
+    private static final Uniform MODEL_MATRIX = uniform("model_matrix");
+    private static final Uniform VIEW_MATRIX = uniform("view_matrix");
+    private static final Uniform PROJ_MATRIX = uniform("proj_matrix");
+    private static final Uniform INPUT_COLOR = uniform("input_color");
+
+    /**
+     * Marks a location in the cache that has not been looked up yet.
+     */
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * The name of the block holding the view and projection matrices, and the
+     * offsets of the matrices in it.
+     */
+    public static final String CAMERA_BLOCK = "Camera";
+    private static final int CAMERA_VIEW_MATRIX = 0;
+    private static final int CAMERA_PROJ_MATRIX = 64;
+    private static final int CAMERA_SIZE = 128;
+
+    /**
+     * The buffer of the camera block, made the first time a 3D view or
+     * projection matrix is set.
+     */
+    private static UniformBlock camera;
+
+    /**
+     * Scratch space for the values of a matrix being set, so setting one does
+     * not make any garbage.
+     */
+    private static final float[] matrixValues = new float[16];
+    private static final FloatBuffer matrixBuffer = GLBuffers.newDirectFloatBuffer(16);
+
+    /**
+     * The shader most recently used.
+     */
+    private static Shader current;
+
     private int id;
 
+    /**
+     * The locations of the shader's active uniforms, by name. Elements of
+     * uniform arrays can also be found by the name of the array alone.
+     */
+    private final Map<String, Integer> locations = new HashMap<String, Integer>();
+
+    /**
+     * The locations of uniforms, indexed by handle.
+     */
+    private int[] cache = new int[0];
+
+    /**
+     * The values the uniforms were last set to, as raw bits, indexed by
+     * location.
+     */
+    private int[][] values = new int[0][];
+
+    /**
+     * The generation of {@link GLState} the values were set in.
+     */
+    private int valuesGeneration = GLState.getGeneration();
+
+    /**
+     * The raw bits of the values a uniform is about to be set to.
+     */
+    private static final int[] pending = new int[16];
+
     /**
      * Construct a shader in the given OpenGL context.
      * 
@@ -63,6 +180,23 @@ public class Shader {
      * @param fragment The file containing the fragment shader code.
      */
     public Shader(GL3 gl, String vertex, String fragment) {
+        this(gl, vertex, fragment, new String[0]);
+    }
+
+    /**
+     * Construct a variant of a shader in the given OpenGL context, with the
+     * given macros defined at the start of both the vertex and the fragment
+     * shader code. The code can test them with #ifdef to leave out whatever
+     * the variant does not need when it is compiled, rather than testing a
+     * uniform for every vertex or fragment.
+     * 
+     * @param gl
+     * @param vertex The file containing the vertex shader code.
+     * @param fragment The file containing the fragment shader code.
+     * @param defines The names of the macros to define, each optionally
+     * followed by a space and its value.
+     */
+    public Shader(GL3 gl, String vertex, String fragment, String... defines) {
 
         ShaderCode vertShader = ShaderCode.create(gl, GL3.GL_VERTEX_SHADER, 1,
                 this.getClass(), new String[] { vertex }, true);
@@ -71,8 +205,17 @@ public class Shader {
 
         // We unfortunately have to do this for this library to be compatible
         // with the older lab machines and the newer Macs
-        vertShader.addGLSLVersion(gl);
-        fragShader.addGLSLVersion(gl);
+        int vertPosition = vertShader.addGLSLVersion(gl);
+        int fragPosition = fragShader.addGLSLVersion(gl);
+
+        // The defines have to come after the #version directive
+        StringBuilder sb = new StringBuilder();
+        for (String define : defines)
+            sb.append("#define ").append(define).append('\n');
+        if (sb.length() > 0) {
+            vertShader.insertShaderSource(0, vertPosition, sb);
+            fragShader.insertShaderSource(0, fragPosition, sb);
+        }
 
         ShaderProgram shaderProgram = new ShaderProgram();
         shaderProgram.add(vertShader);
@@ -87,9 +230,15 @@ public class Shader {
         gl.glBindAttribLocation(id, NORMAL, "normal");
         gl.glBindAttribLocation(id, TEX_COORD, "texCoord");
         gl.glBindAttribLocation(id, COLOR, "color");
+        gl.glBindAttribLocation(id, INSTANCE_MATRIX, "instance_matrix");
         
         shaderProgram.link(gl, System.err);
+        findUniforms(gl);
+        bindBlocks(gl);
         
+        // These are enabled for geometry without a vertex array object of
+        // its own
+        GLState.bindVertexArray(gl, 0);
         gl.glEnableVertexAttribArray(POSITION);
         if (gl.glGetAttribLocation(id, "normal") != -1)
             gl.glEnableVertexAttribArray(NORMAL);
@@ -98,6 +247,148 @@ public class Shader {
         if (gl.glGetAttribLocation(id, "color") != -1)
             gl.glEnableVertexAttribArray(COLOR);
         
+        resetInstanceMatrix(gl);
+    }
+
+    /**
+     * Look up the locations of all the active uniforms.
+     * 
+     * @param gl
+     */
+    private void findUniforms(GL3 gl) {
+        int[] count = new int[1];
+        int[] maxLength = new int[1];
+        gl.glGetProgramiv(id, GL3.GL_ACTIVE_UNIFORMS, count, 0);
+        gl.glGetProgramiv(id, GL3.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+        byte[] name = new byte[Math.max(maxLength[0], 1)];
+        int[] length = new int[1];
+        int[] size = new int[1];
+        int[] type = new int[1];
+        for (int i = 0; i < count[0]; i++) {
+            gl.glGetActiveUniform(id, i, name.length, length, 0, size, 0,
+                    type, 0, name, 0);
+            String uniform = new String(name, 0, length[0]);
+            int location = gl.glGetUniformLocation(id, uniform);
+            locations.put(uniform, location);
+            if (uniform.endsWith("[0]"))
+                locations.put(uniform.substring(0, uniform.length() - 3), location);
+        }
+    }
+
+    /**
+     * Bind each of the shader's uniform blocks to the binding point for its
+     * name.
+     * 
+     * @param gl
+     */
+    private void bindBlocks(GL3 gl) {
+        int[] count = new int[1];
+        int[] maxLength = new int[1];
+        gl.glGetProgramiv(id, GL3.GL_ACTIVE_UNIFORM_BLOCKS, count, 0);
+        gl.glGetProgramiv(id, GL3.GL_ACTIVE_UNIFORM_BLOCK_MAX_NAME_LENGTH,
+                maxLength, 0);
+        byte[] name = new byte[Math.max(maxLength[0], 1)];
+        int[] length = new int[1];
+        for (int i = 0; i < count[0]; i++) {
+            gl.glGetActiveUniformBlockName(id, i, name.length, length, 0,
+                    name, 0);
+            String block = new String(name, 0, length[0]);
+            gl.glUniformBlockBinding(id, i, UniformBlock.binding(block));
+        }
+    }
+
+    /**
+     * Get the handle for the uniform with the given name.
+     * 
+     * @param name
+     * @return
+     */
+    public static synchronized Uniform uniform(String name) {
+        Uniform uniform = handles.get(name);
+        if (uniform == null) {
+            uniform = new Uniform(name, handles.size());
+            handles.put(name, uniform);
+        }
+        return uniform;
+    }
+
+    /**
+     * Get the location of a uniform in this shader, or -1 if it is not an
+     * active uniform of this shader.
+     * 
+     * @param name
+     * @return
+     */
+    public int getLocation(String name) {
+        Integer location = locations.get(name);
+        return location == null ? -1 : location;
+    }
+
+    /**
+     * Get the location of a uniform in this shader, or -1 if it is not an
+     * active uniform of this shader.
+     * 
+     * @param uniform
+     * @return
+     */
+    public int getLocation(Uniform uniform) {
+        if (uniform.index >= cache.length) {
+            int oldLength = cache.length;
+            cache = Arrays.copyOf(cache, Math.max(uniform.index + 1, oldLength * 2));
+            Arrays.fill(cache, oldLength, cache.length, UNKNOWN);
+        }
+        int location = cache[uniform.index];
+        if (location == UNKNOWN) {
+            location = getLocation(uniform.name);
+            cache[uniform.index] = location;
+        }
+        return location;
+    }
+
+    /**
+     * Get the shader most recently used with {@link #use(GL3)}, or null.
+     * 
+     * @return
+     */
+    public static Shader getCurrent() {
+        return current;
+    }
+
+    /**
+     * Get the location of a uniform in the current shader.
+     */
+    private static int location(GL3 gl, String name) {
+        if (current != null)
+            return current.getLocation(name);
+        int ids[] = new int[1];
+        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
+        return gl.glGetUniformLocation(ids[0], name);
+    }
+
+    /**
+     * Get the location of a uniform in the current shader.
+     */
+    private static int location(GL3 gl, Uniform uniform) {
+        if (current != null)
+            return current.getLocation(uniform);
+        return location(gl, uniform.name);
+    }
+
+    /**
+     * Set the instance matrix attribute to the identity for draws that are not
+     * instanced.
+     * 
+     * The instance matrix attribute array is only enabled during instanced
+     * draws. Other draws use the attribute's current value instead, which must
+     * be the identity so that the model matrix alone is used.
+     * 
+     * @param gl
+     */
+    public static void resetInstanceMatrix(GL3 gl) {
+        gl.glVertexAttrib4f(INSTANCE_MATRIX, 1, 0, 0, 0);
+        gl.glVertexAttrib4f(INSTANCE_MATRIX + 1, 0, 1, 0, 0);
+        gl.glVertexAttrib4f(INSTANCE_MATRIX + 2, 0, 0, 1, 0);
+        gl.glVertexAttrib4f(INSTANCE_MATRIX + 3, 0, 0, 0, 1);
     }
 
     /**
@@ -108,18 +399,21 @@ public class Shader {
      * @param gl
      */
     public void use(GL3 gl) {
-        gl.glUseProgram(id);
+        GLState.useProgram(gl, id);
+        current = this;
     }
 
     /**
      * Destroy this shader, releasing its resources.
      * 
-     * This just calls glDeleteProgram().
+     * This just calls glDeleteProgram() (through {@link GLState}).
      *
      * @param gl
      */
     public void destroy(GL3 gl) {
-        gl.glDeleteProgram(id);
+        GLState.deleteProgram(gl, id);
+        if (current == this)
+            current = null;
     }
 
     /**
@@ -138,10 +432,7 @@ public class Shader {
      * @param mat
      */
     public static void setModelMatrix(GL3 gl, Matrix3 mat) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int modelLoc = gl.glGetUniformLocation(ids[0], "model_matrix");
-        gl.glUniformMatrix3fv(modelLoc, 1, false, mat.getValues(), 0);
+        setMatrix3(gl, location(gl, MODEL_MATRIX), mat.getValues());
     }
 
     /**
@@ -151,10 +442,19 @@ public class Shader {
      * @param mat
      */
     public static void setModelMatrix(GL3 gl, Matrix4 mat) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int modelLoc = gl.glGetUniformLocation(ids[0], "model_matrix");
-        gl.glUniformMatrix4fv(modelLoc, 1, false, mat.getValues(), 0);
+        mat.get(matrixValues);
+        setMatrix4(gl, location(gl, MODEL_MATRIX), matrixValues);
+    }
+
+    /**
+     * Sets the model matrix of the currently loaded shader.
+     * 
+     * @param gl
+     * @param mat
+     */
+    public static void setModelMatrix(GL3 gl, Matrix4f mat) {
+        mat.get(matrixValues);
+        setMatrix4(gl, location(gl, MODEL_MATRIX), matrixValues);
     }
 
     /**
@@ -164,10 +464,7 @@ public class Shader {
      * @param mat
      */
     public static void setViewMatrix(GL3 gl, Matrix3 mat) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int viewLoc = gl.glGetUniformLocation(ids[0], "view_matrix");
-        gl.glUniformMatrix3fv(viewLoc, 1, false, mat.getValues(), 0);
+        setMatrix3(gl, location(gl, VIEW_MATRIX), mat.getValues());
     }
 
     /**
@@ -177,10 +474,21 @@ public class Shader {
      * @param mat
      */
     public static void setViewMatrix(GL3 gl, Matrix4 mat) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int viewLoc = gl.glGetUniformLocation(ids[0], "view_matrix");
-        gl.glUniformMatrix4fv(viewLoc, 1, false, mat.getValues(), 0);
+        mat.get(matrixValues);
+        setMatrix4(gl, location(gl, VIEW_MATRIX), matrixValues);
+        setCameraMatrix(gl, CAMERA_VIEW_MATRIX, matrixValues);
+    }
+
+    /**
+     * Sets the view matrix of the currently loaded shader.
+     * 
+     * @param gl
+     * @param mat
+     */
+    public static void setViewMatrix(GL3 gl, Matrix4f mat) {
+        mat.get(matrixValues);
+        setMatrix4(gl, location(gl, VIEW_MATRIX), matrixValues);
+        setCameraMatrix(gl, CAMERA_VIEW_MATRIX, matrixValues);
     }
 
     /**
@@ -190,10 +498,42 @@ public class Shader {
      * @param mat
      */
     public static void setProjMatrix(GL3 gl, Matrix4 mat) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int viewLoc = gl.glGetUniformLocation(ids[0], "proj_matrix");
-        gl.glUniformMatrix4fv(viewLoc, 1, false, mat.getValues(), 0);
+        mat.get(matrixValues);
+        setMatrix4(gl, location(gl, PROJ_MATRIX), matrixValues);
+        setCameraMatrix(gl, CAMERA_PROJ_MATRIX, matrixValues);
+    }
+
+    /**
+     * Delete the buffer of the camera block, if it has been made. It is made
+     * again the next time a 3D view or projection matrix is set.
+     *
+     * @param gl
+     */
+    public static void destroyCameraBlock(GL3 gl) {
+        if (camera != null) {
+            camera.destroy(gl);
+            camera = null;
+        }
+    }
+
+    /**
+     * Forget the shader in use and the buffer of the camera block without
+     * deleting anything, because they belong to a context that is gone. This
+     * must be called when a new context is made.
+     */
+    public static void reset() {
+        current = null;
+        camera = null;
+    }
+
+    /**
+     * Set a matrix in the camera block, for the shaders that declare it.
+     */
+    private static void setCameraMatrix(GL3 gl, int offset, float[] values) {
+        if (camera == null)
+            camera = new UniformBlock(gl, CAMERA_BLOCK, CAMERA_SIZE);
+        camera.setMatrix4(offset, values);
+        camera.upload(gl);
     }
 
     /**
@@ -203,7 +543,7 @@ public class Shader {
      * @param color
      */
     public static void setPenColor(GL3 gl, Color color) {
-        setColorWithAlpha(gl, "input_color", color);
+        setColorWithAlpha(gl, INPUT_COLOR, color);
     }
     
     /**
@@ -214,10 +554,7 @@ public class Shader {
      * @param point3d
      */
     public static void setPoint3D(GL3 gl, String var, Point3D point3d) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int loc = gl.glGetUniformLocation(ids[0], var);
-        gl.glUniform3f(loc, point3d.getX(), point3d.getY(), point3d.getZ());
+        setPoint3D(gl, location(gl, var), point3d);
     }
     
     /**
@@ -228,11 +565,7 @@ public class Shader {
      * @param color
      */
     public static void setColor(GL3 gl, String var, Color color) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int loc = gl.glGetUniformLocation(ids[0], var);
-        gl.glUniform3f(loc, color.getRed() / 255f, color.getGreen() / 255f,
-                color.getBlue() / 255f);
+        setColor(gl, location(gl, var), color);
     }
     
     /**
@@ -243,11 +576,7 @@ public class Shader {
      * @param color
      */
     public static void setColorWithAlpha(GL3 gl, String var, Color color) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int loc = gl.glGetUniformLocation(ids[0], var);
-        gl.glUniform4f(loc, color.getRed() / 255f, color.getGreen() / 255f,
-                color.getBlue() / 255f, color.getAlpha() / 255f);
+        setColorWithAlpha(gl, location(gl, var), color);
     }
     
     /**
@@ -258,16 +587,174 @@ public class Shader {
      * @param f
      */
     public static void setFloat(GL3 gl, String var, float f) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int loc = gl.glGetUniformLocation(ids[0], var);
-        gl.glUniform1f(loc, f);
+        setFloat(gl, location(gl, var), f);
     }
 
     public static void setInt(GL3 gl, String var, int i) {
-        int ids[] = new int[1];
-        gl.glGetIntegerv(GL3.GL_CURRENT_PROGRAM, ids, 0);
-        int loc = gl.glGetUniformLocation(ids[0], var);
-        gl.glUniform1i(loc, i);
+        setInt(gl, location(gl, var), i);
+    }
+
+    /**
+     * Set a uniform variable of type 'vec3' with the given Point3D
+     * @param gl
+     * @param uniform
+     * @param point3d
+     */
+    public static void setPoint3D(GL3 gl, Uniform uniform, Point3D point3d) {
+        setPoint3D(gl, location(gl, uniform), point3d);
+    }
+
+    /**
+     * Set a uniform variable of type 'vec3' with the given Color.
+     * @param gl
+     * @param uniform
+     * @param color
+     */
+    public static void setColor(GL3 gl, Uniform uniform, Color color) {
+        setColor(gl, location(gl, uniform), color);
+    }
+
+    /**
+     * Set a uniform variable of type 'vec4' with the given Color.
+     * @param gl
+     * @param uniform
+     * @param color
+     */
+    public static void setColorWithAlpha(GL3 gl, Uniform uniform, Color color) {
+        setColorWithAlpha(gl, location(gl, uniform), color);
+    }
+
+    /**
+     * Set a uniform variable of type 'float' with the given float.
+     * @param gl
+     * @param uniform
+     * @param f
+     */
+    public static void setFloat(GL3 gl, Uniform uniform, float f) {
+        setFloat(gl, location(gl, uniform), f);
+    }
+
+    /**
+     * Set a uniform variable of type 'int' with the given int.
+     * @param gl
+     * @param uniform
+     * @param i
+     */
+    public static void setInt(GL3 gl, Uniform uniform, int i) {
+        setInt(gl, location(gl, uniform), i);
+    }
+
+    private static void setMatrix3(GL3 gl, int loc, float[] values) {
+        if (changed(loc, values))
+            gl.glUniformMatrix3fv(loc, 1, false, values, 0);
+    }
+
+    private static void setMatrix4(GL3 gl, int loc, float[] values) {
+        if (changed(loc, values)) {
+            matrixBuffer.clear();
+            matrixBuffer.put(values, 0, 16).flip();
+            gl.glUniformMatrix4fv(loc, 1, false, matrixBuffer);
+        }
+    }
+
+    private static void setPoint3D(GL3 gl, int loc, Point3D point3d) {
+        float x = point3d.getX();
+        float y = point3d.getY();
+        float z = point3d.getZ();
+        if (changed(loc, x, y, z))
+            gl.glUniform3f(loc, x, y, z);
+    }
+
+    private static void setColor(GL3 gl, int loc, Color color) {
+        float r = color.getRed() / 255f;
+        float g = color.getGreen() / 255f;
+        float b = color.getBlue() / 255f;
+        if (changed(loc, r, g, b))
+            gl.glUniform3f(loc, r, g, b);
+    }
+
+    private static void setColorWithAlpha(GL3 gl, int loc, Color color) {
+        float r = color.getRed() / 255f;
+        float g = color.getGreen() / 255f;
+        float b = color.getBlue() / 255f;
+        float a = color.getAlpha() / 255f;
+        pending[0] = Float.floatToRawIntBits(r);
+        pending[1] = Float.floatToRawIntBits(g);
+        pending[2] = Float.floatToRawIntBits(b);
+        pending[3] = Float.floatToRawIntBits(a);
+        if (changed(loc, 4))
+            gl.glUniform4f(loc, r, g, b, a);
+    }
+
+    private static void setFloat(GL3 gl, int loc, float f) {
+        pending[0] = Float.floatToRawIntBits(f);
+        if (changed(loc, 1))
+            gl.glUniform1f(loc, f);
+    }
+
+    private static void setInt(GL3 gl, int loc, int i) {
+        pending[0] = i;
+        if (changed(loc, 1))
+            gl.glUniform1i(loc, i);
+    }
+
+    private static boolean changed(int loc, float[] values) {
+        for (int i = 0; i < values.length; i++)
+            pending[i] = Float.floatToRawIntBits(values[i]);
+        return changed(loc, values.length);
+    }
+
+    private static boolean changed(int loc, float x, float y, float z) {
+        pending[0] = Float.floatToRawIntBits(x);
+        pending[1] = Float.floatToRawIntBits(y);
+        pending[2] = Float.floatToRawIntBits(z);
+        return changed(loc, 3);
+    }
+
+    /**
+     * Determine whether setting a uniform of the current shader to the first
+     * n values in {@link #pending} would change it, and if so remember them
+     * as its values. Uniforms that are not active (location -1) never
+     * change.
+     * 
+     * @param loc
+     * @param n
+     * @return false if setting the uniform can be skipped
+     */
+    private static boolean changed(int loc, int n) {
+        if (loc == -1) {
+            GLState.elide();
+            return false;
+        }
+        if (current == null || loc < 0) {
+            GLState.issue();
+            return true;
+        }
+        return current.update(loc, n);
+    }
+
+    private boolean update(int loc, int n) {
+        if (valuesGeneration != GLState.getGeneration()) {
+            values = new int[0][];
+            valuesGeneration = GLState.getGeneration();
+        }
+        if (loc >= values.length)
+            values = Arrays.copyOf(values, Math.max(loc + 1, values.length * 2));
+        int[] old = values[loc];
+        if (old != null && old.length == n) {
+            int i = 0;
+            while (i < n && old[i] == pending[i])
+                i++;
+            if (i == n) {
+                GLState.elide();
+                return false;
+            }
+        } else {
+            old = new int[n];
+            values[loc] = old;
+        }
+        System.arraycopy(pending, 0, old, 0, n);
+        GLState.issue();
+        return true;
     }
 }
@@ -9,6 +9,7 @@ import javax.imageio.ImageIO;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.util.awt.ImageUtil;
 import com.jogamp.opengl.util.texture.TextureData;
 import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
@@ -19,6 +20,12 @@ public class Texture {
 
     private int id;
 
+    private int target = GL.GL_TEXTURE_2D;
+
+    private int width;
+
+    private int height;
+
     /**
      * Create a texture from a file. The file must have dimensions that are a 
      * power of 2.
@@ -28,22 +35,19 @@ public class Texture {
      * @param mipmaps
      */
     public Texture(GL3 gl, String fileName, String extension, boolean mipmaps) {
-        mipMapEnabled = mipmaps;
-        TextureData data = null;
-        try {
-            File file = new File(fileName);
-            BufferedImage img = ImageIO.read(file); // read file into
-                                                    // BufferedImage
-            ImageUtil.flipImageVertically(img);
-
-            data = AWTTextureIO.newTextureData(gl.getGLProfile(), img,
-                    false);
+        this(gl, load(gl, fileName), mipmaps);
+    }
 
-        } catch (IOException exc) {
-            System.err.println(fileName);
-            exc.printStackTrace();
-            System.exit(1);
-        }
+    /**
+     * Create a texture from image data that has already been decoded, e.g. by
+     * {@link #decode(GLProfile, String)}.
+     * @param gl
+     * @param data
+     * @param mipmaps
+     */
+    public Texture(GL3 gl, TextureData data, boolean mipmaps) {
+        long start = System.nanoTime();
+        mipMapEnabled = mipmaps;
 
         int[] ids = new int[1];
 
@@ -51,7 +55,10 @@ public class Texture {
 
         id = ids[0];
 
-        gl.glBindTexture(GL.GL_TEXTURE_2D, id);
+        width = data.getWidth();
+        height = data.getHeight();
+
+        GLState.bindTexture(gl, GL.GL_TEXTURE_2D, id);
 
         // Build texture initialised with image data.
         gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, data.getInternalFormat(),
@@ -60,6 +67,43 @@ public class Texture {
 
         setFilters(gl);
 
+        AssetLoader.time("upload textures", System.nanoTime() - start);
+    }
+
+    /**
+     * Decode an image file into texture data, flipped so that the first row is
+     * the bottom of the image. This does not use OpenGL, so it can be done on
+     * any thread.
+     * @param profile
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    public static TextureData decode(GLProfile profile, String fileName)
+            throws IOException {
+        File file = new File(fileName);
+        BufferedImage img = ImageIO.read(file); // read file into
+                                                // BufferedImage
+        if (img == null)
+            throw new IOException("Unsupported image format");
+        ImageUtil.flipImageVertically(img);
+
+        return AWTTextureIO.newTextureData(profile, img, false);
+    }
+
+    /**
+     * Get the decoded image in a file through the {@link AssetLoader}, exiting
+     * if it cannot be read.
+     */
+    private static TextureData load(GL3 gl, String fileName) {
+        try {
+            return AssetLoader.image(gl.getGLProfile(), fileName);
+        } catch (IOException exc) {
+            System.err.println(fileName);
+            exc.printStackTrace();
+            System.exit(1);
+            return null;
+        }
     }
 
     private void setFilters(GL3 gl) {
@@ -67,20 +111,20 @@ public class Texture {
         if (mipMapEnabled) {
             // TODO Set texture parameters to enable automatic mipmap generation
             // and bilinear/trilinear filtering
-        	gl.glGenerateMipmap(GL.GL_TEXTURE_2D);
-            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER,
+        	gl.glGenerateMipmap(target);
+            gl.glTexParameteri(target, GL.GL_TEXTURE_MAG_FILTER,
                     GL.GL_LINEAR);
-            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+            gl.glTexParameteri(target, GL.GL_TEXTURE_MIN_FILTER,
                     GL.GL_LINEAR_MIPMAP_LINEAR);
             
             float fLargest[] = new float[1]; 
             gl.glGetFloatv(GL.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, fLargest,0);
-            gl.glTexParameterf(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAX_ANISOTROPY_EXT, fLargest[0]);
+            gl.glTexParameterf(target, GL.GL_TEXTURE_MAX_ANISOTROPY_EXT, fLargest[0]);
         } else {
             // Set texture parameters to enable bilinear filtering.
-            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER,
+            gl.glTexParameteri(target, GL.GL_TEXTURE_MAG_FILTER,
                     GL.GL_LINEAR);
-            gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+            gl.glTexParameteri(target, GL.GL_TEXTURE_MIN_FILTER,
                     GL.GL_LINEAR);
         }
 
@@ -100,8 +144,10 @@ public class Texture {
         gl.glGenTextures(1, ids, 0);
         
         id = ids[0];
+        width = size;
+        height = size;
         
-        gl.glBindTexture(GL.GL_TEXTURE_2D, id);
+        GLState.bindTexture(gl, GL.GL_TEXTURE_2D, id);
 
         // Specify image data for currently active texture object.
         gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, size, size, 0,
@@ -124,7 +170,7 @@ public class Texture {
         
         id = ids[0];
         
-        gl.glBindTexture(GL.GL_TEXTURE_2D, id);
+        GLState.bindTexture(gl, GL.GL_TEXTURE_2D, id);
 
         setFilters(gl);
 
@@ -140,12 +186,13 @@ public class Texture {
     public Texture(GL3 gl, String left, String right, String bottom, String top,
             String front, String back, String extension, boolean mipmaps) {
         mipMapEnabled = mipmaps;
+        target = GL.GL_TEXTURE_CUBE_MAP;
         
         int[] ids = new int[1];
         gl.glGenTextures(1, ids, 0);
         id = ids[0];
 
-        gl.glBindTexture(GL.GL_TEXTURE_CUBE_MAP, id);
+        GLState.bindTexture(gl, GL.GL_TEXTURE_CUBE_MAP, id);
         
         String[] filenames = {left, right, bottom, top, front, back};
         int[] faces = {GL.GL_TEXTURE_CUBE_MAP_NEGATIVE_X, 
@@ -157,26 +204,18 @@ public class Texture {
         };
         TextureData[] data = new TextureData[6];
         for (int i = 0; i < 6; i++) {
-            try {
-                File file = new File(filenames[i]);
-                BufferedImage img = ImageIO.read(file); // read file into
-                                                        // BufferedImage
-                ImageUtil.flipImageVertically(img);
-    
-                data[i] = AWTTextureIO.newTextureData(gl.getGLProfile(), img,
-                        false);
-    
-            } catch (IOException exc) {
-                System.err.println(filenames[i]);
-                exc.printStackTrace();
-                System.exit(1);
-            }
+            AssetLoader.prefetchImage(filenames[i]);
+        }
+        for (int i = 0; i < 6; i++) {
+            data[i] = load(gl, filenames[i]);
             
             gl.glTexImage2D(faces[i], 0, data[i].getInternalFormat(),
                     data[i].getWidth(), data[i].getHeight(), 0, 
                     data[i].getPixelFormat(), data[i].getPixelType(), 
                     data[i].getBuffer());
         }
+        width = data[0].getWidth();
+        height = data[0].getHeight();
         
         gl.glTexParameteri(GL.GL_TEXTURE_CUBE_MAP, GL.GL_TEXTURE_MAG_FILTER,
                 GL.GL_LINEAR);
@@ -184,11 +223,93 @@ public class Texture {
                 GL.GL_LINEAR);
     }
 
+    /**
+     * Create a 2D array texture from multiple files. Each file becomes one
+     * layer of the array, in the order given. All files must have the same
+     * dimensions.
+     * @param gl
+     * @param fileNames
+     * @param extension
+     * @param mipmaps
+     */
+    public Texture(GL3 gl, String[] fileNames, String extension, boolean mipmaps) {
+        mipMapEnabled = mipmaps;
+        target = GL3.GL_TEXTURE_2D_ARRAY;
+
+        // Decode everything first so the storage can be allocated once with
+        // the right dimensions.
+        // The files are decoded in parallel if the AssetLoader is running.
+        TextureData[] data = new TextureData[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            AssetLoader.prefetchImage(fileNames[i]);
+        }
+        for (int i = 0; i < fileNames.length; i++) {
+            data[i] = load(gl, fileNames[i]);
+        }
+
+        long start = System.nanoTime();
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        id = ids[0];
+
+        width = data[0].getWidth();
+        height = data[0].getHeight();
+
+        GLState.bindTexture(gl, target, id);
+
+        // Allocate storage for every layer, then fill each one in.
+        gl.glTexImage3D(target, 0, data[0].getInternalFormat(),
+                data[0].getWidth(), data[0].getHeight(), data.length, 0,
+                data[0].getPixelFormat(), data[0].getPixelType(), null);
+        for (int i = 0; i < data.length; i++) {
+            gl.glTexSubImage3D(target, 0, 0, 0, i, data[i].getWidth(),
+                    data[i].getHeight(), 1, data[i].getPixelFormat(),
+                    data[i].getPixelType(), data[i].getBuffer());
+        }
+
+        setFilters(gl);
+
+        AssetLoader.time("upload textures", System.nanoTime() - start);
+    }
+
     public int getId() {
         return id;
     }
 
+    /**
+     * Get the texture target this texture should be bound to, e.g.
+     * GL_TEXTURE_2D or GL_TEXTURE_2D_ARRAY.
+     * @return
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the width of the texture in texels, or 0 if it has no image data.
+     * @return
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the texture in texels, or 0 if it has no image data.
+     * @return
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Whether mipmaps were generated for this texture.
+     * @return
+     */
+    public boolean hasMipmaps() {
+        return mipMapEnabled;
+    }
+
     public void destroy(GL3 gl) {
-        gl.glDeleteTextures(1, new int[] {id}, 0);
+        GLState.deleteTexture(gl, id);
     }
 }
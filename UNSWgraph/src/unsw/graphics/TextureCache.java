@@ -0,0 +1,239 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.jogamp.opengl.GL3;
+
+/**
+ * A cache of textures loaded from files.
+ *
+ * Textures are shared between everything that asks for the same file with the
+ * same parameters, so each distinct image is only decoded and copied to
+ * graphics memory once. The cache keeps an estimate of how much graphics
+ * memory its textures use. When that estimate goes over the budget, the
+ * textures that were bound least recently are destroyed. An evicted texture is
+ * loaded again the next time it is bound.
+ *
+ * Because a texture may be evicted at any time, users hold on to a
+ * {@link Handle} rather than a {@link Texture} and must bind it through
+ * {@link #bind(GL3, Handle)}.
+ *
+ */
+public class TextureCache {
+
+    /**
+     * The default graphics memory budget (256MB).
+     */
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    /**
+     * A texture in the cache.
+     */
+    public static class Handle {
+        private final String key;
+        private final String fileName;
+        private final String extension;
+        private final boolean mipmaps;
+
+        /**
+         * The loaded texture, or null if it has been evicted.
+         */
+        private Texture texture;
+
+        /**
+         * The estimated size of the texture in graphics memory.
+         */
+        private long bytes;
+
+        private int users;
+
+        private Handle(String key, String fileName, String extension,
+                boolean mipmaps) {
+            this.key = key;
+            this.fileName = fileName;
+            this.extension = extension;
+            this.mipmaps = mipmaps;
+        }
+
+        /**
+         * The file the texture is loaded from.
+         * @return
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Whether the texture is currently in graphics memory.
+         * @return
+         */
+        public boolean isLoaded() {
+            return texture != null;
+        }
+    }
+
+    /**
+     * All cached textures, ordered from least to most recently bound.
+     */
+    private static final LinkedHashMap<String, Handle> handles =
+            new LinkedHashMap<String, Handle>(16, 0.75f, true);
+
+    private static long budget = DEFAULT_BUDGET;
+
+    private static long loadedBytes = 0;
+
+    /**
+     * Get a handle to the texture for the given file. The texture is only
+     * loaded if no other user has already asked for the same file with the
+     * same parameters. The arguments have the same meaning as in
+     * {@link Texture#Texture(GL3, String, String, boolean)}.
+     *
+     * Every call to this method must eventually be matched by a call to
+     * {@link #release(GL3, Handle)}.
+     *
+     * @param gl
+     * @param fileName
+     * @param extension
+     * @param mipmaps
+     * @return
+     */
+    public static synchronized Handle get(GL3 gl, String fileName,
+            String extension, boolean mipmaps) {
+        String key = fileName + ":" + extension + ":" + mipmaps;
+        Handle handle = handles.get(key);
+        if (handle == null) {
+            handle = new Handle(key, fileName, extension, mipmaps);
+            handles.put(key, handle);
+        }
+        if (handle.texture == null)
+            load(gl, handle);
+        handle.users++;
+        return handle;
+    }
+
+    /**
+     * Bind the given texture to the active texture unit, loading it again if
+     * it has been evicted.
+     *
+     * @param gl
+     * @param handle
+     */
+    public static synchronized void bind(GL3 gl, Handle handle) {
+        // Marks the texture as most recently used
+        handles.get(handle.key);
+        if (handle.texture == null)
+            load(gl, handle);
+        GLState.bindTexture(gl, handle.texture.getTarget(), handle.texture.getId());
+    }
+
+    /**
+     * Get the texture for the given handle, loading it again if it has been
+     * evicted. The returned texture should not be kept, since it may be
+     * evicted.
+     *
+     * @param gl
+     * @param handle
+     * @return
+     */
+    public static synchronized Texture getTexture(GL3 gl, Handle handle) {
+        handles.get(handle.key);
+        if (handle.texture == null)
+            load(gl, handle);
+        return handle.texture;
+    }
+
+    /**
+     * Release one user of the given texture. When the last user is released,
+     * the texture is destroyed and removed from the cache.
+     *
+     * @param gl
+     * @param handle
+     */
+    public static synchronized void release(GL3 gl, Handle handle) {
+        handle.users--;
+        if (handle.users == 0) {
+            unload(gl, handle);
+            handles.remove(handle.key);
+        }
+    }
+
+    /**
+     * Set the graphics memory budget in bytes, evicting textures if the cache
+     * is now over budget.
+     *
+     * @param gl
+     * @param bytes
+     */
+    public static synchronized void setBudget(GL3 gl, long bytes) {
+        budget = bytes;
+        evict(gl, null);
+    }
+
+    /**
+     * Get the graphics memory budget in bytes.
+     * @return
+     */
+    public static synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get the estimated graphics memory used by the loaded textures in bytes.
+     * @return
+     */
+    public static synchronized long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    /**
+     * Estimate the graphics memory used by the given texture. Textures are
+     * assumed to be stored with 4 bytes per texel, and a full mipmap chain adds
+     * a third on top of that.
+     *
+     * @param texture
+     * @return
+     */
+    public static long estimateBytes(Texture texture) {
+        long bytes = (long) texture.getWidth() * texture.getHeight() * 4;
+        if (texture.hasMipmaps())
+            bytes += bytes / 3;
+        return bytes;
+    }
+
+    private static void load(GL3 gl, Handle handle) {
+        handle.texture = new Texture(gl, handle.fileName, handle.extension,
+                handle.mipmaps);
+        handle.bytes = estimateBytes(handle.texture);
+        loadedBytes += handle.bytes;
+        evict(gl, handle);
+    }
+
+    private static void unload(GL3 gl, Handle handle) {
+        if (handle.texture != null) {
+            handle.texture.destroy(gl);
+            handle.texture = null;
+            loadedBytes -= handle.bytes;
+        }
+    }
+
+    /**
+     * Destroy the least recently bound textures until the cache is within
+     * budget. The given handle is never evicted, so a texture that is larger
+     * than the whole budget can still be used.
+     *
+     * @param gl
+     * @param keep
+     */
+    private static void evict(GL3 gl, Handle keep) {
+        Iterator<Handle> it = handles.values().iterator();
+        while (loadedBytes > budget && it.hasNext()) {
+            Handle handle = it.next();
+            if (handle != keep)
+                unload(gl, handle);
+        }
+    }
+}
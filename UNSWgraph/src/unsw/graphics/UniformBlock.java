@@ -0,0 +1,215 @@
+/**
+ * 
+ */
+package unsw.graphics;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GL3;
+
+import unsw.graphics.geometry.Point3D;
+
+/**
+ * A uniform buffer holding the values of a uniform block.
+ *
+ * Every block name has its own binding point, which {@link Shader} binds the
+ * block of that name to in every program that declares it. One buffer can
+ * therefore serve any number of programs, and values that are the same for
+ * all of them only have to be set once.
+ *
+ * The values are kept in memory laid out as given by the offsets passed to
+ * the setters, which must follow the std140 rules for the block's
+ * declaration. Setting a value does not touch OpenGL; {@link #upload(GL3)}
+ * copies everything that changed since the last upload with a single
+ * glBufferSubData().
+ *
+ */
+public class UniformBlock {
+
+    /**
+     * The binding point of each block name seen so far.
+     */
+    private static final Map<String, Integer> bindings = new HashMap<String, Integer>();
+
+    private final String name;
+    private final int binding;
+    private final ByteBuffer data;
+    private int id;
+
+    // The range of bytes changed since the last upload
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    /**
+     * Create a uniform buffer for the block with the given name, bound to the
+     * block's binding point.
+     *
+     * @param gl
+     * @param name The name of the block in the shaders
+     * @param size The size of the block in bytes
+     */
+    public UniformBlock(GL3 gl, String name, int size) {
+        this.name = name;
+        this.binding = binding(name);
+        this.data = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+
+        int[] ids = new int[1];
+        gl.glGenBuffers(1, ids, 0);
+        id = ids[0];
+        gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER, id);
+        gl.glBufferData(GL2ES3.GL_UNIFORM_BUFFER, size, data, GL.GL_DYNAMIC_DRAW);
+        gl.glBindBufferBase(GL2ES3.GL_UNIFORM_BUFFER, binding, id);
+        clean();
+    }
+
+    /**
+     * Get the binding point of the block with the given name, giving it the
+     * next free one if it does not have one yet.
+     *
+     * @param name
+     * @return
+     */
+    public static synchronized int binding(String name) {
+        Integer binding = bindings.get(name);
+        if (binding == null) {
+            binding = bindings.size();
+            bindings.put(name, binding);
+        }
+        return binding;
+    }
+
+    /**
+     * Forget the binding points given out so far. This must be called when a
+     * new context is made, before any blocks or shaders are made in it.
+     */
+    public static synchronized void resetBindings() {
+        bindings.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set a member of type 'float'.
+     *
+     * @param offset
+     * @param f
+     */
+    public void setFloat(int offset, float f) {
+        int bits = Float.floatToRawIntBits(f);
+        if (data.getInt(offset) != bits) {
+            data.putInt(offset, bits);
+            changed(offset, 4);
+        }
+    }
+
+    /**
+     * Set a member of type 'int'.
+     *
+     * @param offset
+     * @param i
+     */
+    public void setInt(int offset, int i) {
+        if (data.getInt(offset) != i) {
+            data.putInt(offset, i);
+            changed(offset, 4);
+        }
+    }
+
+    /**
+     * Set a member of type 'vec3'.
+     *
+     * @param offset
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void setVec3(int offset, float x, float y, float z) {
+        setFloat(offset, x);
+        setFloat(offset + 4, y);
+        setFloat(offset + 8, z);
+    }
+
+    /**
+     * Set a member of type 'vec3' with the given Point3D.
+     *
+     * @param offset
+     * @param point3d
+     */
+    public void setPoint3D(int offset, Point3D point3d) {
+        setVec3(offset, point3d.getX(), point3d.getY(), point3d.getZ());
+    }
+
+    /**
+     * Set a member of type 'vec3' with the given Color.
+     *
+     * @param offset
+     * @param color
+     */
+    public void setColor(int offset, Color color) {
+        setVec3(offset, color.getRed() / 255f, color.getGreen() / 255f,
+                color.getBlue() / 255f);
+    }
+
+    /**
+     * Set a member of type 'mat4' with the given values in column-major
+     * order.
+     *
+     * @param offset
+     * @param values
+     */
+    public void setMatrix4(int offset, float[] values) {
+        for (int i = 0; i < 16; i++)
+            setFloat(offset + i * 4, values[i]);
+    }
+
+    /**
+     * Whether any value has changed since the last upload.
+     *
+     * @return
+     */
+    public boolean isDirty() {
+        return dirtyStart < dirtyEnd;
+    }
+
+    /**
+     * Copy the values that have changed since the last upload into the
+     * buffer, if there are any.
+     *
+     * @param gl
+     */
+    public void upload(GL3 gl) {
+        if (!isDirty()) {
+            GLState.elide();
+            return;
+        }
+        data.limit(dirtyEnd).position(dirtyStart);
+        gl.glBindBuffer(GL2ES3.GL_UNIFORM_BUFFER, id);
+        gl.glBufferSubData(GL2ES3.GL_UNIFORM_BUFFER, dirtyStart,
+                dirtyEnd - dirtyStart, data);
+        data.clear();
+        GLState.issue();
+        clean();
+    }
+
+    public void destroy(GL3 gl) {
+        gl.glDeleteBuffers(1, new int[] { id }, 0);
+    }
+
+    private void changed(int offset, int length) {
+        dirtyStart = Math.min(dirtyStart, offset);
+        dirtyEnd = Math.max(dirtyEnd, offset + length);
+    }
+
+    private void clean() {
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = 0;
+    }
+}
@@ -7,6 +7,7 @@ import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.GLState;
 import unsw.graphics.Point3DBuffer;
 import unsw.graphics.Shader;
 
@@ -62,14 +63,16 @@ public class Line3D {
         
         int[] names = new int[1];
         gl.glGenBuffers(1, names, 0);
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, names[0]);
+        GLState.bindVertexArray(gl, 0);
+        GLState.bindBuffer(gl, GL.GL_ARRAY_BUFFER, names[0]);
         gl.glBufferData(GL.GL_ARRAY_BUFFER, 2*3*Float.BYTES, buffer.getBuffer(), GL.GL_STATIC_DRAW);
         
-        gl.glVertexAttribPointer(Shader.POSITION, 3, GL.GL_FLOAT, false, 0, 0);
+        GLState.vertexAttribPointer(gl, Shader.POSITION, names[0], 3, GL.GL_FLOAT, 0, 0);
         Shader.setModelMatrix(gl, frame.getMatrix());
+        GLState.countDraw();
         gl.glDrawArrays(GL.GL_LINES, 0, 2);
         
-        gl.glDeleteBuffers(1, names, 0);
+        GLState.deleteBuffers(gl, names);
     }
     
     /**
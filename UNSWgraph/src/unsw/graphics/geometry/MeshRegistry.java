@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package unsw.graphics.geometry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.jogamp.opengl.GL3;
+
+import unsw.graphics.AssetLoader;
+
+/**
+ * A registry of triangle meshes loaded from PLY files.
+ *
+ * Each PLY file is parsed only once, no matter how many objects use it. The
+ * registry hands out the same {@link TriangleMesh} to every caller that asks
+ * for the same file (with the same options) and keeps count of how many users
+ * it has. The mesh is copied to graphics memory on the first call to
+ * {@link #init(GL3, TriangleMesh)} and its buffers are freed when the last
+ * user calls {@link #destroy(GL3, TriangleMesh)}.
+ *
+ * Users of a shared mesh must not call init() or destroy() on the mesh
+ * directly.
+ *
+ * Files can be prefetched, in which case they are parsed by the
+ * {@link AssetLoader} while other work goes on.
+ *
+ */
+public class MeshRegistry {
+
+    /**
+     * A mesh shared by one or more users.
+     */
+    private static class Entry {
+        private final String key;
+        private final TriangleMesh mesh;
+        private int users;
+        private boolean initialised;
+
+        private Entry(String key, TriangleMesh mesh) {
+            this.key = key;
+            this.mesh = mesh;
+        }
+    }
+
+    /**
+     * The shared meshes, keyed by file and options.
+     */
+    private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * The same entries, keyed by the mesh they hold.
+     */
+    private static final Map<TriangleMesh, Entry> meshes = new IdentityHashMap<TriangleMesh, Entry>();
+
+    /**
+     * Meshes that have been prefetched but not yet requested, keyed like
+     * entries.
+     */
+    private static final Map<String, Future<TriangleMesh>> pending = new HashMap<String, Future<TriangleMesh>>();
+
+    /**
+     * Start parsing the given PLY file in the background, unless it is already
+     * loaded or being parsed. The arguments are the same as for
+     * {@link #get(String, boolean, boolean)}.
+     *
+     * @param plyFile
+     * @param vertexNormals
+     * @param texCoords
+     */
+    public static synchronized void prefetch(final String plyFile,
+            final boolean vertexNormals, final boolean texCoords) {
+        String key = plyFile + ":" + vertexNormals + ":" + texCoords;
+        if (entries.containsKey(key) || pending.containsKey(key))
+            return;
+        pending.put(key, AssetLoader.submit("parse meshes", new Callable<TriangleMesh>() {
+            @Override
+            public TriangleMesh call() throws IOException {
+                return new TriangleMesh(plyFile, vertexNormals, texCoords);
+            }
+        }));
+    }
+
+    /**
+     * Get the shared mesh for the given PLY file. The file is only parsed the
+     * first time it is requested. The arguments have the same meaning as in
+     * {@link TriangleMesh#TriangleMesh(String, boolean, boolean)}.
+     *
+     * Every call to this method must eventually be matched by a call to
+     * {@link #destroy(GL3, TriangleMesh)}.
+     *
+     * @param plyFile
+     * @param vertexNormals
+     * @param texCoords
+     * @return
+     * @throws IOException
+     */
+    public static synchronized TriangleMesh get(String plyFile,
+            boolean vertexNormals, boolean texCoords) throws IOException {
+        String key = plyFile + ":" + vertexNormals + ":" + texCoords;
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            TriangleMesh mesh;
+            Future<TriangleMesh> future = pending.remove(key);
+            if (future != null) {
+                try {
+                    mesh = AssetLoader.await(future);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            } else {
+                mesh = new TriangleMesh(plyFile, vertexNormals, texCoords);
+            }
+            entry = new Entry(key, mesh);
+            entries.put(key, entry);
+            meshes.put(entry.mesh, entry);
+        }
+        entry.users++;
+        return entry.mesh;
+    }
+
+    /**
+     * Copy the given shared mesh to graphics memory, unless that has already
+     * been done.
+     *
+     * @param gl
+     * @param mesh A mesh obtained from {@link #get(String, boolean, boolean)}
+     */
+    public static synchronized void init(GL3 gl, TriangleMesh mesh) {
+        Entry entry = entry(mesh);
+        if (!entry.initialised) {
+            mesh.init(gl);
+            entry.initialised = true;
+        }
+    }
+
+    /**
+     * Release one user of the given shared mesh. When the last user is
+     * released, the mesh's buffers are destroyed and the next request for its
+     * file will parse it again.
+     *
+     * @param gl
+     * @param mesh A mesh obtained from {@link #get(String, boolean, boolean)}
+     */
+    public static synchronized void destroy(GL3 gl, TriangleMesh mesh) {
+        Entry entry = entry(mesh);
+        entry.users--;
+        if (entry.users == 0) {
+            if (entry.initialised)
+                mesh.destroy(gl);
+            entries.remove(entry.key);
+            meshes.remove(mesh);
+        }
+    }
+
+    private static Entry entry(TriangleMesh mesh) {
+        Entry entry = meshes.get(mesh);
+        if (entry == null)
+            throw new IllegalArgumentException("Mesh was not obtained from the registry");
+        return entry;
+    }
+}
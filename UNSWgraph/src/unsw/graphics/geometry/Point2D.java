@@ -4,6 +4,7 @@ import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
 import unsw.graphics.CoordFrame2D;
+import unsw.graphics.GLState;
 import unsw.graphics.Point2DBuffer;
 import unsw.graphics.Shader;
 import unsw.graphics.Vector3;
@@ -44,16 +45,18 @@ public class Point2D {
         int[] names = new int[1];
         gl.glGenBuffers(1, names, 0);
 
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, names[0]);
+        GLState.bindVertexArray(gl, 0);
+        GLState.bindBuffer(gl, GL.GL_ARRAY_BUFFER, names[0]);
 
         gl.glBufferData(GL.GL_ARRAY_BUFFER, 2 * Float.BYTES, buffer.getBuffer(),
                 GL.GL_STATIC_DRAW);
 
-        gl.glVertexAttribPointer(Shader.POSITION, 2, GL.GL_FLOAT, false, 0, 0);
+        GLState.vertexAttribPointer(gl, Shader.POSITION, names[0], 2, GL.GL_FLOAT, 0, 0);
         Shader.setModelMatrix(gl, frame.getMatrix());
+        GLState.countDraw();
         gl.glDrawArrays(GL.GL_POINTS, 0, 1);
 
-        gl.glDeleteBuffers(1, names, 0);
+        GLState.deleteBuffers(gl, names);
     }
     
     /**
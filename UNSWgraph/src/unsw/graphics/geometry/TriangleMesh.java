@@ -4,6 +4,7 @@
 package unsw.graphics.geometry;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.List;
 
@@ -22,6 +23,8 @@ import com.jogamp.opengl.GL3;
 import com.jogamp.opengl.util.GLBuffers;
 
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.GLState;
+import unsw.graphics.Matrix4f;
 import unsw.graphics.Point2DBuffer;
 import unsw.graphics.Point3DBuffer;
 import unsw.graphics.Shader;
@@ -35,11 +38,23 @@ import unsw.graphics.Vector3;
  * 
  * The normals computed during construction of this mesh are NOT normalised. 
  * 
+ * In graphics memory all the vertex data is kept in one buffer, interleaved
+ * by default, and a vertex array object records how the vertex attributes are
+ * read from it. Drawing the mesh then only takes binding the vertex array
+ * object. Since the vertex array object stays bound after drawing, geometry
+ * that does not have its own must bind vertex array object 0 before setting
+ * up its attributes.
+ * 
  * @author Robert Clifton-Everest
  *
  */
 public class TriangleMesh {
 
+    /**
+     * The model matrix for drawing a mesh as it is. Never changed.
+     */
+    private static final Matrix4f IDENTITY = new Matrix4f();
+
     /**
      * Contains the vertices of all triangles that make up the mesh.
      */
@@ -62,19 +77,22 @@ public class TriangleMesh {
     private IntBuffer indices;
 
     /**
-     * The name of the vertex buffer according to OpenGL
+     * Whether the vertex data is interleaved (position, normal and texture
+     * coordinate of the first vertex, then of the second, ...) rather than
+     * stored as all the positions, then all the normals, then all the texture
+     * coordinates.
      */
-    private int verticesName;
-    
+    private boolean interleaved = true;
+
     /**
-     * The name of the normal buffer according to OpenGL
+     * The name of the buffer of vertex data according to OpenGL
      */
-    private int normalsName;
-    
+    private int vertexDataName;
+
     /**
-     * The name of the normal buffer according to OpenGL
+     * The name of the vertex array object according to OpenGL
      */
-    private int texCoordsName;
+    private int vertexArrayName;
 
     /**
      * The name of the indices buffer according to OpenGL
@@ -187,6 +205,24 @@ public class TriangleMesh {
         this.texCoords = new Point2DBuffer(texCoords);
     }
 
+    /**
+     * Create a triangle mesh from buffers that have already been filled in.
+     * This avoids building lists of points for large meshes. The normals and
+     * texture coordinates may be null, as may the indices if the vertices are
+     * in the desired order for a triangle mesh.
+     * @param vertices
+     * @param normals
+     * @param texCoords
+     * @param indices
+     */
+    public TriangleMesh(Point3DBuffer vertices, Point3DBuffer normals,
+            Point2DBuffer texCoords, IntBuffer indices) {
+        this.vertices = vertices;
+        this.normals = normals;
+        this.texCoords = texCoords;
+        this.indices = indices;
+    }
+
     /**
      * Construct a triangle with the given PLY file.
      * 
@@ -336,58 +372,123 @@ public class TriangleMesh {
         }
     }
 
+    /**
+     * Choose how the vertex data is laid out in graphics memory. This must be
+     * called before the mesh is initialised.
+     * 
+     * @param interleaved Whether to interleave the attributes of each vertex
+     * (the default) rather than storing each attribute in its own block
+     */
+    public void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
     public void init(GL3 gl) {
         // Generate the names for the buffers.
-        int[] names = new int[4];
-        gl.glGenBuffers(4, names, 0);
-        verticesName = names[0];
+        int[] names = new int[2];
+        gl.glGenBuffers(2, names, 0);
+        vertexDataName = names[0];
         indicesName = names[1];
-        normalsName = names[2];
-        texCoordsName = names[3];
+        gl.glGenVertexArrays(1, names, 0);
+        vertexArrayName = names[0];
+
+        int count = vertices.capacity();
+        int normalSize = normals != null ? 3 : 0;
+        int texCoordSize = texCoords != null ? 2 : 0;
+        int vertexSize = 3 + normalSize + texCoordSize;
+        FloatBuffer data = GLBuffers.newDirectFloatBuffer(count * vertexSize);
+        FloatBuffer vertexBuffer = (FloatBuffer) vertices.getBuffer();
+        FloatBuffer normalBuffer = normals != null ? (FloatBuffer) normals.getBuffer() : null;
+        FloatBuffer texCoordBuffer = texCoords != null ? (FloatBuffer) texCoords.getBuffer() : null;
+
+        // The offset of each attribute and the distance between the values
+        // for consecutive vertices, in floats
+        int stride;
+        int normalOffset;
+        int texCoordOffset;
+        if (interleaved) {
+            stride = vertexSize;
+            normalOffset = 3;
+            texCoordOffset = 3 + normalSize;
+            for (int i = 0; i < count; i++) {
+                copy(vertexBuffer, i * 3, data, i * stride, 3);
+                if (normalBuffer != null)
+                    copy(normalBuffer, i * 3, data, i * stride + normalOffset, 3);
+                if (texCoordBuffer != null)
+                    copy(texCoordBuffer, i * 2, data, i * stride + texCoordOffset, 2);
+            }
+        } else {
+            stride = 0;
+            normalOffset = count * 3;
+            texCoordOffset = count * (3 + normalSize);
+            copy(vertexBuffer, 0, data, 0, count * 3);
+            if (normalBuffer != null)
+                copy(normalBuffer, 0, data, normalOffset, count * 3);
+            if (texCoordBuffer != null)
+                copy(texCoordBuffer, 0, data, texCoordOffset, count * 2);
+        }
 
         // Copy the data for the vertices
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, verticesName);
-        gl.glBufferData(GL.GL_ARRAY_BUFFER,
-                vertices.capacity() * 3 * Float.BYTES, vertices.getBuffer(),
-                GL.GL_STATIC_DRAW);
-        
+        GLState.bindBuffer(gl, GL.GL_ARRAY_BUFFER, vertexDataName);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, data.capacity() * Float.BYTES,
+                data, GL.GL_STATIC_DRAW);
+
+        // Record where each attribute comes from in the vertex array object
+        GLState.bindVertexArray(gl, vertexArrayName);
+        GLState.vertexAttribPointer(gl, Shader.POSITION, vertexDataName, 3,
+                GL.GL_FLOAT, stride * Float.BYTES, 0);
+        gl.glEnableVertexAttribArray(Shader.POSITION);
         if (normals != null) {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, normalsName);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER,
-                    normals.capacity() * 3 * Float.BYTES, normals.getBuffer(),
-                    GL.GL_STATIC_DRAW);
+            GLState.vertexAttribPointer(gl, Shader.NORMAL, vertexDataName, 3,
+                    GL.GL_FLOAT, stride * Float.BYTES, normalOffset * Float.BYTES);
+            gl.glEnableVertexAttribArray(Shader.NORMAL);
         }
-        
         if (texCoords != null) {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, texCoordsName);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER,
-                    texCoords.capacity() * 2 * Float.BYTES, texCoords.getBuffer(),
-                    GL.GL_STATIC_DRAW);
+            GLState.vertexAttribPointer(gl, Shader.TEX_COORD, vertexDataName, 2,
+                    GL.GL_FLOAT, stride * Float.BYTES, texCoordOffset * Float.BYTES);
+            gl.glEnableVertexAttribArray(Shader.TEX_COORD);
         }
 
+        // The element buffer binding is part of the vertex array object too
+        GLState.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, indicesName);
         if (indices != null) {
             // Copy the data for the indices
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indicesName);
             gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
                     indices.capacity() * Integer.BYTES, indices, GL.GL_STATIC_DRAW);
         }
     }
 
-    public void draw(GL3 gl, CoordFrame3D frame) {
-        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, indicesName);
+    private static void copy(FloatBuffer src, int srcOffset, FloatBuffer dst,
+            int dstOffset, int length) {
+        for (int i = 0; i < length; i++)
+            dst.put(dstOffset + i, src.get(srcOffset + i));
+    }
 
-        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, verticesName);
-        gl.glVertexAttribPointer(Shader.POSITION, 3, GL.GL_FLOAT, false, 0, 0);
-        if (normals != null) {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, normalsName);
-            gl.glVertexAttribPointer(Shader.NORMAL, 3, GL.GL_FLOAT, false, 0, 0);
-        }
-        if (texCoords != null) {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, texCoordsName);
-            gl.glVertexAttribPointer(Shader.TEX_COORD, 2, GL.GL_FLOAT, false, 0, 0);
-        }
+    public void draw(GL3 gl, CoordFrame3D frame) {
+        bind(gl);
         Shader.setModelMatrix(gl, frame.getMatrix());
+        drawElements(gl);
+    }
+
+    /**
+     * Draw this mesh with the given model matrix. Unlike a CoordFrame3D, the
+     * matrix can be reused from frame to frame, so drawing this way makes no
+     * garbage.
+     * 
+     * @param gl
+     * @param model
+     */
+    public void draw(GL3 gl, Matrix4f model) {
+        bind(gl);
+        Shader.setModelMatrix(gl, model);
+        drawElements(gl);
+    }
+
+    private void drawElements(GL3 gl) {
+        GLState.countDraw();
         if (indices != null) {
+            // In case the mesh was last drawn with other indices
+            GLState.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, indicesName);
             gl.glDrawElements(GL3.GL_TRIANGLES, indices.capacity(),
                     GL.GL_UNSIGNED_INT, 0);
         } else {
@@ -395,11 +496,69 @@ public class TriangleMesh {
         }
     }
 
+    /**
+     * Draw this mesh using the first count indices of the given index buffer
+     * instead of its own indices. This allows the same vertices to be drawn
+     * with different triangles, e.g. at a lower level of detail.
+     * 
+     * @param gl
+     * @param frame
+     * @param indicesName The name of the index buffer according to OpenGL
+     * @param count
+     */
+    public void draw(GL3 gl, CoordFrame3D frame, int indicesName, int count) {
+        bind(gl);
+        // This changes the vertex array object's element buffer, which is
+        // skipped if the mesh was last drawn with the same indices
+        GLState.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, indicesName);
+        Shader.setModelMatrix(gl, frame.getMatrix());
+        GLState.countDraw();
+        gl.glDrawElements(GL3.GL_TRIANGLES, count, GL.GL_UNSIGNED_INT, 0);
+    }
+
+    /**
+     * Draw the given number of instances of this mesh with a single draw call.
+     * 
+     * The caller is responsible for setting up any per-instance attributes
+     * (e.g. {@link Shader#INSTANCE_MATRIX}) before calling this. The given
+     * frame is applied to every instance.
+     * 
+     * @param gl
+     * @param frame
+     * @param instances
+     */
+    public void drawInstanced(GL3 gl, CoordFrame3D frame, int instances) {
+        bind(gl);
+        Shader.setModelMatrix(gl, frame.getMatrix());
+        GLState.countDraw();
+        if (indices != null) {
+            // In case the mesh was last drawn with other indices
+            GLState.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, indicesName);
+            gl.glDrawElementsInstanced(GL3.GL_TRIANGLES, indices.capacity(),
+                    GL.GL_UNSIGNED_INT, 0, instances);
+        } else {
+            gl.glDrawArraysInstanced(GL3.GL_TRIANGLES, 0, vertices.capacity(),
+                    instances);
+        }
+    }
+
+    /**
+     * Bind the mesh's vertex array object, so that its vertex attributes are
+     * read from its buffers. Any other vertex attributes set up while it is
+     * bound (e.g. per-instance ones) become part of it.
+     * 
+     * @param gl
+     */
+    public void bind(GL3 gl) {
+        GLState.bindVertexArray(gl, vertexArrayName);
+    }
+
     public void destroy(GL3 gl) {
-        gl.glDeleteBuffers(4, new int[] { verticesName, indicesName, normalsName, texCoordsName }, 0);
+        GLState.deleteVertexArray(gl, vertexArrayName);
+        GLState.deleteBuffers(gl, vertexDataName, indicesName);
     }
 
     public void draw(GL3 gl) {
-        draw(gl, CoordFrame3D.identity());
+        draw(gl, IDENTITY);
     }
 }
@@ -3,19 +3,19 @@ package unsw.graphics.world;
 import java.awt.Color;
 import java.io.IOException;
 
-import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
-import unsw.graphics.CoordFrame3D;
+import unsw.graphics.MatrixStack;
 import unsw.graphics.Shader;
-import unsw.graphics.Texture;
+import unsw.graphics.TextureCache;
+import unsw.graphics.geometry.MeshRegistry;
 import unsw.graphics.geometry.Point3D;
 import unsw.graphics.geometry.TriangleMesh;
 
 public class Avatar {
 
 	private TriangleMesh mesh;
-	private Texture texture;
+	private TextureCache.Handle texture;
 	
 	private Point3D position;
 	private float angleY;
@@ -23,7 +23,7 @@ public class Avatar {
 	public Avatar() {
 		position = new Point3D(0, 0, 15);
 		try {
-			mesh = new TriangleMesh("res/models/wolf.ply", true, true);
+			mesh = MeshRegistry.get("res/models/wolf.ply", true, true);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -42,6 +42,10 @@ public class Avatar {
 		this.angleY = angle;
 	}
 	
+	public void setPosition(Point3D position) {
+		this.position = position;
+	}
+
 	/**
 	 * Set the altitude of the avatar.
 	 * @param y
@@ -69,15 +73,26 @@ public class Avatar {
 	}
 	
 	public void init(GL3 gl) {
-		texture = new Texture(gl, "res/textures/wolf.jpg", "jpg", true);
-		mesh.init(gl);
+		texture = TextureCache.get(gl, "res/textures/wolf.jpg", "jpg", true);
+		MeshRegistry.init(gl, mesh);
 	}
 	
-	public void draw(GL3 gl, CoordFrame3D frame) {
+	/**
+	 * Draw the avatar, transformed by the matrix on top of the given stack.
+	 * @param gl
+	 * @param stack
+	 */
+	public void draw(GL3 gl, MatrixStack stack) {
 		Shader.setPenColor(gl, Color.WHITE);
-		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getId());
-		frame = frame.rotateX(-90).rotateZ(180).scale(0.8f, 0.8f, 0.8f);
-		mesh.draw(gl, frame);
+		TextureCache.bind(gl, texture);
+		stack.push().rotateX(-90).rotateZ(180).scale(0.8f, 0.8f, 0.8f);
+		mesh.draw(gl, stack.top());
+		stack.pop();
+	}
+
+	public void destroy(GL3 gl) {
+		MeshRegistry.destroy(gl, mesh);
+		TextureCache.release(gl, texture);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,391 @@
+package unsw.graphics.world;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+
+import unsw.graphics.AssetLoader;
+import unsw.graphics.GLState;
+import unsw.graphics.Profiler;
+import unsw.graphics.RecordingGL;
+import unsw.graphics.RollingHistogram;
+
+/**
+ * Draws a level offscreen along a camera path as fast as possible, and writes
+ * a JSON report of how long the frames took and how much work they did.
+ *
+ * No window or GPU is needed, so this can run on a headless machine with
+ * Mesa's llvmpipe, e.g. with LIBGL_ALWAYS_SOFTWARE=1.
+ *
+ * Usage: Benchmark level [options]
+ *   --path file     Replay a path recorded in the world with the R key.
+ *                   Without one the camera circles the middle of the level.
+ *   --frames n      The number of frames to measure (default: the length of
+ *                   the path, or 1000)
+ *   --warmup n      The number of frames to draw first without measuring
+ *                   them (default 100)
+ *   --size w h      The size of the surface drawn to (default 800 600)
+ *   --pbuffer       Draw into a pbuffer instead of a framebuffer object
+ *   --record        Record every GL call with a {@link RecordingGL}, and
+ *                   report the calls, state changes, vertices and bytes
+ *                   uploaded per frame. This slows every call down a little,
+ *                   so frame times are not comparable with runs without it.
+ *   --profile       Time each phase of drawing on the CPU and GPU with the
+ *                   {@link Profiler}, and report them for the last 600 frames
+ *   --night, --torch, --sun
+ *                   Turn on the lighting modes, as with the N, T and S keys
+ *   --out file      Where to write the report (default benchmark.json)
+ *
+ * Each frame is finished with glFinish(), so its time includes the time
+ * OpenGL takes to draw it. The memory allocated in each frame is measured for
+ * the thread drawing it, when the JVM supports that. The report also has the
+ * time each phase of loading the level and starting up took.
+ */
+public class Benchmark {
+
+	private static final int DEFAULT_FRAMES = 1000;
+	private static final int DEFAULT_WARMUP = 100;
+
+	private World world;
+	private CameraPath path;
+	private int frames;
+	private int warmup;
+
+	// Each measured frame's time, allocation and work
+	private long[] times;
+	private long[] allocated;
+	private long[] drawCalls;
+	private long[] issuedCalls;
+	private long[] elidedCalls;
+	private long[] triangles;
+
+	// Only measured when recording
+	private RecordingGL recorder;
+	private long[] glCalls;
+	private long[] stateChanges;
+	private long[] vertices;
+	private long[] bytesUploaded;
+
+	private String renderer;
+
+	public Benchmark(World world, CameraPath path, int frames, int warmup) {
+		this.world = world;
+		this.path = path;
+		this.frames = frames;
+		this.warmup = warmup;
+	}
+
+	/**
+	 * Record the GL calls of each frame with the given recorder, which is
+	 * given the drawable's GL to wrap when the drawable is initialised.
+	 * @param recorder
+	 */
+	public void setRecorder(RecordingGL recorder) {
+		this.recorder = recorder;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: Benchmark level [--path file] [--frames n]"
+					+ " [--warmup n] [--size w h] [--pbuffer] [--record] [--profile]"
+					+ " [--night] [--torch] [--sun] [--out file]");
+			System.exit(1);
+		}
+		File level = new File(args[0]);
+		File pathFile = null;
+		File out = new File("benchmark.json");
+		int frames = -1;
+		int warmup = DEFAULT_WARMUP;
+		int width = 800;
+		int height = 600;
+		boolean pbuffer = false;
+		boolean record = false;
+		boolean profile = false;
+		boolean night = false;
+		boolean torch = false;
+		boolean sun = false;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--path")) {
+				pathFile = new File(args[++i]);
+			} else if (arg.equals("--frames")) {
+				frames = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--warmup")) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--size")) {
+				width = Integer.parseInt(args[++i]);
+				height = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--pbuffer")) {
+				pbuffer = true;
+			} else if (arg.equals("--record")) {
+				record = true;
+			} else if (arg.equals("--profile")) {
+				profile = true;
+			} else if (arg.equals("--night")) {
+				night = true;
+			} else if (arg.equals("--torch")) {
+				torch = true;
+			} else if (arg.equals("--sun")) {
+				sun = true;
+			} else if (arg.equals("--out")) {
+				out = new File(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		Terrain terrain = World.load(level);
+		CameraPath path;
+		if (pathFile != null) {
+			path = CameraPath.read(pathFile);
+			if (path.size() == 0) {
+				throw new IOException(pathFile + " has no frames");
+			}
+		} else {
+			path = CameraPath.orbit(terrain, frames > 0 ? frames : DEFAULT_FRAMES);
+		}
+		if (frames <= 0) {
+			frames = path.size();
+		}
+
+		World world = new World(terrain, width, height);
+		if (night) {
+			world.switchNightMode();
+		}
+		if (torch) {
+			world.switchTorchMode();
+		}
+		if (sun) {
+			world.switchSunMode();
+		}
+
+		Benchmark benchmark = new Benchmark(world, path, frames, warmup);
+		if (record) {
+			benchmark.setRecorder(new RecordingGL());
+		}
+		Profiler.setEnabled(profile);
+		GLOffscreenAutoDrawable drawable = world.startOffscreen(pbuffer);
+		try {
+			benchmark.run(drawable);
+		} finally {
+			drawable.destroy();
+		}
+
+		JSONObject report = benchmark.report();
+		report.put("level", level.getPath());
+		report.put("width", width);
+		report.put("height", height);
+		report.put("surface", pbuffer ? "pbuffer" : "fbo");
+		Writer writer = new FileWriter(out);
+		try {
+			writer.write(report.toString(2));
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+		System.out.println(report.toString(2));
+		System.out.println("Wrote " + out);
+	}
+
+	/**
+	 * Draw the warmup frames and then the measured frames.
+	 * @param drawable A drawable the world draws to, on the current thread
+	 */
+	public void run(GLAutoDrawable drawable) {
+		times = new long[frames];
+		allocated = new long[frames];
+		drawCalls = new long[frames];
+		issuedCalls = new long[frames];
+		elidedCalls = new long[frames];
+		triangles = new long[frames];
+		if (recorder != null) {
+			glCalls = new long[frames];
+			stateChanges = new long[frames];
+			vertices = new long[frames];
+			bytesUploaded = new long[frames];
+		}
+
+		// Runs after the world in each frame, to wait for OpenGL to finish
+		drawable.addGLEventListener(new GLEventListener() {
+			// The GL as it was before being wrapped, so that waiting is not
+			// recorded
+			private GL gl;
+
+			@Override
+			public void init(GLAutoDrawable drawable) {
+				gl = drawable.getGL();
+				renderer = gl.glGetString(GL.GL_RENDERER);
+				if (recorder != null) {
+					drawable.setGL(recorder.wrap(gl.getGL3()));
+				}
+			}
+
+			@Override
+			public void display(GLAutoDrawable drawable) {
+				gl.glFinish();
+			}
+
+			@Override
+			public void reshape(GLAutoDrawable drawable, int x, int y,
+					int width, int height) {
+			}
+
+			@Override
+			public void dispose(GLAutoDrawable drawable) {
+			}
+		});
+
+		Camera camera = world.getCamera();
+		for (int i = 0; i < warmup; i++) {
+			path.apply(camera, i);
+			drawable.display();
+		}
+		Profiler.reset();
+		for (int i = 0; i < frames; i++) {
+			path.apply(camera, warmup + i);
+			if (recorder != null) {
+				recorder.reset();
+			}
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			drawable.display();
+			times[i] = System.nanoTime() - start;
+			allocated[i] = allocatedBytes() - bytes;
+
+			drawCalls[i] = GLState.getDrawCalls();
+			issuedCalls[i] = GLState.getIssuedCalls();
+			elidedCalls[i] = GLState.getElidedCalls();
+			triangles[i] = world.getTerrain().getDrawnTriangles();
+			if (recorder != null) {
+				glCalls[i] = recorder.getCalls();
+				stateChanges[i] = recorder.getStateChanges();
+				vertices[i] = recorder.getVertices();
+				bytesUploaded[i] = recorder.getBytesUploaded();
+			}
+		}
+	}
+
+	/**
+	 * Summarise the measured frames.
+	 * @return report
+	 */
+	public JSONObject report() {
+		JSONObject report = new JSONObject();
+		report.put("renderer", renderer);
+		report.put("frames", frames);
+		report.put("warmupFrames", warmup);
+		JSONObject startup = new JSONObject();
+		for (Map.Entry<String, Long> phase : AssetLoader.getTimes().entrySet()) {
+			startup.put(phase.getKey(), phase.getValue() * 1e-6);
+		}
+		report.put("startupMs", startup);
+
+		long total = 0;
+		for (long time : times) {
+			total += time;
+		}
+		report.put("framesPerSecond", frames / (total / 1e9));
+		report.put("frameTimeMs", summarise(times, 1e-6));
+		if (allocatedBytes() >= 0) {
+			report.put("allocatedBytesPerFrame", summarise(allocated, 1));
+		}
+		report.put("drawCallsPerFrame", summarise(drawCalls, 1));
+		report.put("issuedCallsPerFrame", summarise(issuedCalls, 1));
+		report.put("elidedCallsPerFrame", summarise(elidedCalls, 1));
+		report.put("terrainTrianglesPerFrame", summarise(triangles, 1));
+		if (recorder != null) {
+			report.put("glCallsPerFrame", summarise(glCalls, 1));
+			report.put("stateChangesPerFrame", summarise(stateChanges, 1));
+			report.put("verticesPerFrame", summarise(vertices, 1));
+			report.put("bytesUploadedPerFrame", summarise(bytesUploaded, 1));
+		}
+		if (Profiler.isEnabled()) {
+			JSONObject phases = new JSONObject();
+			for (Profiler.Scope scope : Profiler.getScopes()) {
+				if (scope.getCpuTimes().getCount() == 0) {
+					continue;
+				}
+				JSONObject phase = new JSONObject();
+				phase.put("cpuTimeMs", summarise(scope.getCpuTimes()));
+				if (scope.getGpuTimes().getCount() > 0) {
+					phase.put("gpuTimeMs", summarise(scope.getGpuTimes()));
+				}
+				phases.put(scope.getName(), phase);
+			}
+			report.put("phases", phases);
+		}
+		return report;
+	}
+
+	/**
+	 * The mean, percentiles and maximum of the given values, each multiplied
+	 * by the given scale.
+	 */
+	private static JSONObject summarise(long[] values, double scale) {
+		long[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		double sum = 0;
+		for (long value : sorted) {
+			sum += value;
+		}
+		JSONObject summary = new JSONObject();
+		summary.put("mean", sum / sorted.length * scale);
+		summary.put("p50", percentile(sorted, 50) * scale);
+		summary.put("p90", percentile(sorted, 90) * scale);
+		summary.put("p95", percentile(sorted, 95) * scale);
+		summary.put("p99", percentile(sorted, 99) * scale);
+		summary.put("max", sorted[sorted.length - 1] * scale);
+		return summary;
+	}
+
+	/**
+	 * The mean, percentiles and maximum of the times in a histogram, in
+	 * milliseconds. The percentiles are only as exact as its buckets.
+	 */
+	private static JSONObject summarise(RollingHistogram times) {
+		JSONObject summary = new JSONObject();
+		summary.put("mean", times.getMean() * 1e-6);
+		summary.put("p50", times.getPercentile(50) * 1e-6);
+		summary.put("p90", times.getPercentile(90) * 1e-6);
+		summary.put("p95", times.getPercentile(95) * 1e-6);
+		summary.put("p99", times.getPercentile(99) * 1e-6);
+		summary.put("max", times.getMax() * 1e-6);
+		return summary;
+	}
+
+	/**
+	 * The nearest-rank percentile of the given sorted values.
+	 */
+	private static long percentile(long[] sorted, double p) {
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(rank - 1, 0)];
+	}
+
+	/**
+	 * The number of bytes allocated by the current thread so far, or -1 if
+	 * the JVM cannot tell.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported()
+					&& threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+}
@@ -7,6 +7,9 @@ import com.jogamp.newt.event.KeyListener;
 import com.jogamp.opengl.GL3;
 
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.Matrix4;
+import unsw.graphics.Matrix4f;
+import unsw.graphics.MatrixStack;
 import unsw.graphics.Shader;
 import unsw.graphics.geometry.Point3D;
 
@@ -25,6 +28,10 @@ public class Camera implements KeyListener {
 	private float angleZ;
 	private float scale;
 
+	// Reused every frame, so drawing makes no garbage
+	private Matrix4f view;
+	private MatrixStack stack;
+
 	public Camera(World world) {
 		this.world = world;
 		this.terrain = world.getTerrain();
@@ -36,6 +43,8 @@ public class Camera implements KeyListener {
 		this.avatar = new Avatar();
 		this.thirdPerson = false;
 		this.sun = new Sun();
+		this.view = new Matrix4f();
+		this.stack = new MatrixStack();
 	}
 	
 	public Point3D getPosition() {
@@ -70,22 +79,73 @@ public class Camera implements KeyListener {
 		return thirdPerson;
 	}
 
-	public void setView(GL3 gl) {
-		CoordFrame3D viewFrame = CoordFrame3D.identity()
+	/**
+	 * Get the position of the camera itself, which is behind the avatar in
+	 * third person view.
+	 * @return position
+	 */
+	public Point3D getEyePosition() {
+		return position;
+	}
+
+	public float getAngleY() {
+		return angleY;
+	}
+
+	/**
+	 * Move the camera and the avatar straight to the given pose, e.g. one
+	 * recorded in a {@link CameraPath}.
+	 * @param eye The position of the camera
+	 * @param angleY
+	 * @param thirdPerson
+	 * @param avatarPosition
+	 */
+	public void setPose(Point3D eye, float angleY, boolean thirdPerson, Point3D avatarPosition) {
+		this.position = eye;
+		this.angleY = angleY;
+		this.thirdPerson = thirdPerson;
+		avatar.setPosition(avatarPosition);
+		avatar.rotate(angleY);
+	}
+
+	/**
+	 * Get the view matrix for the camera's current position and orientation.
+	 * @return matrix
+	 */
+	public Matrix4 getViewMatrix() {
+		return getViewMatrix(new Matrix4f()).toMatrix4();
+	}
+
+	/**
+	 * Compute the view matrix for the camera's current position and
+	 * orientation in the given matrix.
+	 * @param dst
+	 * @return dst
+	 */
+	public Matrix4f getViewMatrix(Matrix4f dst) {
+		return dst.setIdentity()
 				.scale(1/scale, 1/scale, 1/scale)
 				.rotateX(-angleX).rotateY(-angleY).rotateZ(-angleZ)
 				.translate(-position.getX(), -position.getY(), -position.getZ());
-		Shader.setViewMatrix(gl, viewFrame.getMatrix());
+	}
+
+	public void setView(GL3 gl) {
+		Shader.setViewMatrix(gl, getViewMatrix(view));
 	}
 
 	public void init(GL3 gl) {
 		avatar.init(gl);
 	}
 
+	public void destroy(GL3 gl) {
+		avatar.destroy(gl);
+	}
+
 	public void draw(GL3 gl, CoordFrame3D frame) {
 		if (thirdPerson) {
-			frame = frame.translate(avatar.getPosition().getX(), avatar.getPosition().getY(), avatar.getPosition().getZ()).rotateY(angleY);
-			avatar.draw(gl, frame);
+			Point3D p = avatar.getPosition();
+			stack.load(frame.getMatrix()).translate(p.getX(), p.getY(), p.getZ()).rotateY(angleY);
+			avatar.draw(gl, stack);
 		}
 	}
 
@@ -106,6 +166,14 @@ public class Camera implements KeyListener {
 			sun.reset();
 			break;
 
+		case KeyEvent.VK_R:
+			world.switchRecording();
+			break;
+
+		case KeyEvent.VK_P:
+			world.printProfile();
+			break;
+
 		case KeyEvent.VK_V:
 			if (thirdPerson) {
 				x = (float) (position.getX()-2*Math.sin(Math.toRadians(angleY)));
@@ -0,0 +1,170 @@
+package unsw.graphics.world;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import unsw.graphics.geometry.Point3D;
+
+/**
+ * The pose of the camera in each frame of a flythrough, for replaying the
+ * same frames again, e.g. in a {@link Benchmark}.
+ *
+ * A path is saved as text with one frame per line:
+ *   x y z angleY thirdPerson avatarX avatarY avatarZ
+ * where (x, y, z) is the position of the camera, thirdPerson is 1 or 0 and
+ * the avatar's position follows. Blank lines and lines starting with '#' are
+ * ignored.
+ */
+public class CameraPath {
+
+	private static final int X = 0;
+	private static final int Y = 1;
+	private static final int Z = 2;
+	private static final int ANGLE_Y = 3;
+	private static final int THIRD_PERSON = 4;
+	private static final int AVATAR_X = 5;
+	private static final int AVATAR_Y = 6;
+	private static final int AVATAR_Z = 7;
+	private static final int FIELDS = 8;
+
+	private List<float[]> poses;
+
+	public CameraPath() {
+		poses = new ArrayList<float[]>();
+	}
+
+	/**
+	 * Make a path that circles the middle of the terrain once, looking
+	 * towards the middle from just above the ground.
+	 * @param terrain
+	 * @param frames The number of frames the circle takes
+	 * @return path
+	 */
+	public static CameraPath orbit(Terrain terrain, int frames) {
+		CameraPath path = new CameraPath();
+		float cx = (terrain.getWidth() - 1) / 2f;
+		float cz = (terrain.getDepth() - 1) / 2f;
+		float radius = Math.max(Math.min(cx, cz) * 0.8f, 1);
+		for (int i = 0; i < frames; i++) {
+			double t = 2 * Math.PI * i / frames;
+			float x = cx + radius * (float) Math.cos(t);
+			float z = cz + radius * (float) Math.sin(t);
+			float y = 1;
+			if (terrain.isOnTerrain(x, z)) {
+				y += terrain.altitude(x, z);
+			}
+			// The camera looks along -z rotated by angleY
+			float angleY = (float) Math.toDegrees(Math.atan2(x - cx, z - cz));
+			path.add(x, y, z, angleY, false, x, y - 1, z);
+		}
+		return path;
+	}
+
+	/**
+	 * Read a path saved with {@link #write(File)}.
+	 * @param file
+	 * @return path
+	 * @throws IOException
+	 */
+	public static CameraPath read(File file) throws IOException {
+		CameraPath path = new CameraPath();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (fields.length != FIELDS) {
+					throw new IOException(file + ":" + lineNumber + ": expected "
+							+ FIELDS + " values but found " + fields.length);
+				}
+				float[] pose = new float[FIELDS];
+				for (int i = 0; i < FIELDS; i++) {
+					try {
+						pose[i] = Float.parseFloat(fields[i]);
+					} catch (NumberFormatException e) {
+						throw new IOException(file + ":" + lineNumber + ": bad value "
+								+ fields[i]);
+					}
+				}
+				path.poses.add(pose);
+			}
+		} finally {
+			in.close();
+		}
+		return path;
+	}
+
+	/**
+	 * Save the path as text.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println("# x y z angleY thirdPerson avatarX avatarY avatarZ");
+			for (float[] pose : poses) {
+				StringBuilder line = new StringBuilder();
+				for (int i = 0; i < FIELDS; i++) {
+					if (i > 0) {
+						line.append(' ');
+					}
+					line.append(pose[i]);
+				}
+				out.println(line);
+			}
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * Add the camera's current pose as the next frame.
+	 * @param camera
+	 */
+	public void add(Camera camera) {
+		Point3D eye = camera.getEyePosition();
+		Point3D avatar = camera.getPosition();
+		add(eye.getX(), eye.getY(), eye.getZ(), camera.getAngleY(),
+				camera.isThirdPerson(), avatar.getX(), avatar.getY(), avatar.getZ());
+	}
+
+	private void add(float x, float y, float z, float angleY, boolean thirdPerson,
+			float avatarX, float avatarY, float avatarZ) {
+		poses.add(new float[] { x, y, z, angleY, thirdPerson ? 1 : 0,
+				avatarX, avatarY, avatarZ });
+	}
+
+	public int size() {
+		return poses.size();
+	}
+
+	/**
+	 * Move the camera to its pose in the given frame. Paths loop, so any
+	 * frame number can be given.
+	 * @param camera
+	 * @param frame
+	 */
+	public void apply(Camera camera, int frame) {
+		float[] pose = poses.get(frame % poses.size());
+		camera.setPose(new Point3D(pose[X], pose[Y], pose[Z]), pose[ANGLE_Y],
+				pose[THIRD_PERSON] != 0,
+				new Point3D(pose[AVATAR_X], pose[AVATAR_Y], pose[AVATAR_Z]));
+	}
+
+}
@@ -0,0 +1,99 @@
+package unsw.graphics.world;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.GLBuffers;
+
+import unsw.graphics.CoordFrame3D;
+import unsw.graphics.GLState;
+import unsw.graphics.Shader;
+import unsw.graphics.TextureCache;
+import unsw.graphics.geometry.MeshRegistry;
+import unsw.graphics.geometry.TriangleMesh;
+
+/**
+ * All the trees on a terrain, drawn with one instanced draw call.
+ *
+ * The model matrix of every tree is copied into a single per-instance
+ * attribute buffer when the forest is initialised, so the number of draw calls
+ * does not grow with the number of trees.
+ */
+public class Forest {
+
+	private List<Tree> trees;
+	private TriangleMesh mesh;
+	private TextureCache.Handle texture;
+
+	/**
+	 * The name of the buffer of per-instance model matrices according to OpenGL
+	 */
+	private int instancesName;
+
+	public Forest(List<Tree> trees) {
+		this.trees = trees;
+		try {
+			mesh = MeshRegistry.get("res/models/tree.ply", true, true);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void init(GL3 gl) {
+		texture = TextureCache.get(gl, "res/textures/trunk.jpg", "jpg", true);
+		MeshRegistry.init(gl, mesh);
+
+		FloatBuffer matrices = GLBuffers.newDirectFloatBuffer(trees.size() * 16);
+		for (int i = 0; i < trees.size(); i++) {
+			trees.get(i).getModelMatrix().get(matrices);
+		}
+		matrices.flip();
+
+		int[] names = new int[1];
+		gl.glGenBuffers(1, names, 0);
+		instancesName = names[0];
+		GLState.bindBuffer(gl, GL.GL_ARRAY_BUFFER, instancesName);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, trees.size() * 16 * Float.BYTES,
+				matrices, GL.GL_STATIC_DRAW);
+	}
+
+	public void draw(GL3 gl, CoordFrame3D frame) {
+		if (trees.isEmpty()) {
+			return;
+		}
+		Shader.setPenColor(gl, Color.WHITE);
+		TextureCache.bind(gl, texture);
+
+		// One column of the instance matrix per attribute location, advancing
+		// once per instance instead of once per vertex. These are set up in
+		// the mesh's vertex array object, and turned off again afterwards
+		// since the mesh is shared.
+		mesh.bind(gl);
+		for (int i = 0; i < 4; i++) {
+			gl.glEnableVertexAttribArray(Shader.INSTANCE_MATRIX + i);
+			GLState.vertexAttribPointer(gl, Shader.INSTANCE_MATRIX + i,
+					instancesName, 4, GL.GL_FLOAT, 16 * Float.BYTES,
+					i * 4 * Float.BYTES);
+			gl.glVertexAttribDivisor(Shader.INSTANCE_MATRIX + i, 1);
+		}
+
+		mesh.drawInstanced(gl, frame, trees.size());
+
+		for (int i = 0; i < 4; i++) {
+			gl.glVertexAttribDivisor(Shader.INSTANCE_MATRIX + i, 0);
+			gl.glDisableVertexAttribArray(Shader.INSTANCE_MATRIX + i);
+		}
+		Shader.resetInstanceMatrix(gl);
+	}
+
+	public void destroy(GL3 gl) {
+		GLState.deleteBuffers(gl, instancesName);
+		MeshRegistry.destroy(gl, mesh);
+		TextureCache.release(gl, texture);
+	}
+
+}
@@ -0,0 +1,115 @@
+package unsw.graphics.world;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A grid of altitudes stored in a single flat array.
+ *
+ * Altitudes are stored row by row: the altitude at grid point (x, z) is at
+ * index z * width + x. This is the same order as the altitudes in a level
+ * file, so whole rows (or the whole grid) can be copied in and out in bulk.
+ */
+public class Heightfield {
+
+	private int width;
+	private int depth;
+	private float[] values;
+
+	/**
+	 * Create a flat heightfield.
+	 * @param width The number of grid points in the x-direction
+	 * @param depth The number of grid points in the z-direction
+	 */
+	public Heightfield(int width, int depth) {
+		this.width = width;
+		this.depth = depth;
+		this.values = new float[width * depth];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get the altitude at a grid point.
+	 * @param x
+	 * @param z
+	 * @return altitude
+	 */
+	public float get(int x, int z) {
+		return values[z * width + x];
+	}
+
+	/**
+	 * Set the altitude at a grid point.
+	 * @param x
+	 * @param z
+	 * @param h
+	 */
+	public void set(int x, int z, float h) {
+		values[z * width + x] = h;
+	}
+
+	/**
+	 * Copy a whole row of altitudes (all the grid points with the given z)
+	 * from the given array, starting at the given offset.
+	 * @param z
+	 * @param src
+	 * @param offset
+	 */
+	public void setRow(int z, float[] src, int offset) {
+		System.arraycopy(src, offset, values, z * width, width);
+	}
+
+	/**
+	 * Copy the altitudes from the remaining floats of the given buffer, in row
+	 * order, starting at grid point (0, 0). The buffer's position is advanced
+	 * past the floats that were read.
+	 * @param src
+	 */
+	public void copyFrom(FloatBuffer src) {
+		src.get(values, 0, Math.min(values.length, src.remaining()));
+	}
+
+	/**
+	 * Copy all the altitudes into the given buffer, in row order. The
+	 * buffer's position is advanced past the floats that were written.
+	 * @param dst
+	 */
+	public void copyTo(FloatBuffer dst) {
+		dst.put(values);
+	}
+
+	/**
+	 * Get a view of all the altitudes in row order. The view shares storage
+	 * with this heightfield, so no altitudes are copied.
+	 * @return buffer
+	 */
+	public FloatBuffer asFloatBuffer() {
+		return FloatBuffer.wrap(values);
+	}
+
+	/**
+	 * Get a view of one row of altitudes. The view shares storage with this
+	 * heightfield, so no altitudes are copied.
+	 * @param z
+	 * @return buffer
+	 */
+	public FloatBuffer row(int z) {
+		return FloatBuffer.wrap(values, z * width, width).slice();
+	}
+
+	/**
+	 * Get the backing array, in row order. Changes to the array are changes
+	 * to the heightfield.
+	 * @return array
+	 */
+	public float[] array() {
+		return values;
+	}
+
+}
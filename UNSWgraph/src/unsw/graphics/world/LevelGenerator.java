@@ -0,0 +1,456 @@
+package unsw.graphics.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import unsw.graphics.Vector3;
+import unsw.graphics.geometry.Point2D;
+
+/**
+ * Generates large random levels for testing how the engine scales with the
+ * size of the world.
+ *
+ * The altitudes are fractal noise (several octaves of gradient noise added
+ * together), computed in parallel in bands of rows. Roads wander across the
+ * terrain from one side to the other, ponds are dug into it, and trees are
+ * scattered over the rest. The same seed and settings always give the same
+ * level, however many threads are used.
+ *
+ * Usage: LevelGenerator [options]
+ *   --size n      The number of grid points along each side (default 1024)
+ *   --trees n     The number of trees (default 10000)
+ *   --roads n     The number of roads (default 8)
+ *   --ponds n     The number of ponds (default 16)
+ *   --height h    The largest altitude (default 8)
+ *   --seed s      The random seed (default 1)
+ *   --threads n   The number of threads computing altitudes (default: one
+ *                 per processor)
+ *   --out name    Write name.json and name.lvl (default res/worlds/large)
+ *
+ * Trees load their model when they are made, so run this from the UNSWgraph
+ * directory. An 8192 x 8192 level needs a heap of around 2GB.
+ */
+public class LevelGenerator {
+
+	/**
+	 * The size in grid cells of the largest hills.
+	 */
+	private static final float PERIOD = 256;
+
+	private static final int OCTAVES = 6;
+
+	private int size;
+	private long seed;
+	private int trees;
+	private int roads;
+	private int ponds;
+	private float height;
+
+	// The permutation table of the gradient noise
+	private int[] perm;
+
+	// Cells that have a road or pond in them, so no trees are put there
+	private BitSet occupied;
+
+	/**
+	 * Create a generator for square levels with the given number of grid
+	 * points along each side.
+	 * @param size
+	 * @param seed
+	 */
+	public LevelGenerator(int size, long seed) {
+		if (size < 2) {
+			throw new IllegalArgumentException("A level needs at least 2 x 2 grid points");
+		}
+		this.size = size;
+		this.seed = seed;
+		this.trees = 10000;
+		this.roads = 8;
+		this.ponds = 16;
+		this.height = 8;
+	}
+
+	public LevelGenerator setTrees(int trees) {
+		this.trees = trees;
+		return this;
+	}
+
+	public LevelGenerator setRoads(int roads) {
+		this.roads = roads;
+		return this;
+	}
+
+	public LevelGenerator setPonds(int ponds) {
+		this.ponds = ponds;
+		return this;
+	}
+
+	public LevelGenerator setHeight(float height) {
+		this.height = height;
+		return this;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int size = 1024;
+		int trees = 10000;
+		int roads = 8;
+		int ponds = 16;
+		float height = 8;
+		long seed = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String out = "res/worlds/large";
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--size")) {
+				size = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--trees")) {
+				trees = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--roads")) {
+				roads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--ponds")) {
+				ponds = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--height")) {
+				height = Float.parseFloat(args[++i]);
+			} else if (arg.equals("--seed")) {
+				seed = Long.parseLong(args[++i]);
+			} else if (arg.equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--out")) {
+				out = args[++i];
+			} else {
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		long start = System.nanoTime();
+		Terrain terrain = new LevelGenerator(size, seed).setTrees(trees)
+				.setRoads(roads).setPonds(ponds).setHeight(height).generate(threads);
+		long generated = System.nanoTime();
+		System.out.printf("Generated %d x %d level with %d trees, %d roads and %d ponds in %.0fms%n",
+				size, size, terrain.trees().size(), terrain.roads().size(),
+				terrain.ponds().size(), (generated - start) / 1e6);
+
+		File json = new File(out + ".json");
+		LevelIO.save(terrain, json);
+		long saved = System.nanoTime();
+		System.out.printf("Wrote %s (%d bytes) in %.0fms%n", json, json.length(),
+				(saved - generated) / 1e6);
+
+		File binary = new File(out + LevelIO.BINARY_EXTENSION);
+		LevelIO.saveBinary(terrain, binary);
+		System.out.printf("Wrote %s (%d bytes) in %.0fms%n", binary, binary.length(),
+				(System.nanoTime() - saved) / 1e6);
+	}
+
+	/**
+	 * Generate a level.
+	 * @param threads The number of threads to compute the altitudes with
+	 * @return terrain
+	 */
+	public Terrain generate(int threads) {
+		Random random = new Random(seed);
+		perm = permutation(random);
+		occupied = new BitSet(size * size);
+
+		Heightfield altitudes = altitudes(threads);
+		Terrain terrain = new Terrain(altitudes, new Vector3(-1, 1, 0));
+		for (int i = 0; i < roads; i++) {
+			addRoad(terrain, random);
+		}
+		for (int i = 0; i < ponds; i++) {
+			addPond(terrain, altitudes, random);
+		}
+		addTrees(terrain, random);
+		return terrain;
+	}
+
+	/**
+	 * Compute the altitudes, in bands of rows shared between the threads.
+	 */
+	private Heightfield altitudes(int threads) {
+		final Heightfield altitudes = new Heightfield(size, size);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+		try {
+			List<Future<Void>> bands = new ArrayList<Future<Void>>();
+			// More bands than threads, so the threads finish together
+			final int rows = Math.max(size / (threads * 4), 1);
+			for (int z0 = 0; z0 < size; z0 += rows) {
+				final int start = z0;
+				bands.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						float[] row = new float[size];
+						for (int z = start; z < Math.min(start + rows, size); z++) {
+							for (int x = 0; x < size; x++) {
+								row[x] = altitude(x, z);
+							}
+							altitudes.setRow(z, row, 0);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> band : bands) {
+				band.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return altitudes;
+	}
+
+	/**
+	 * The altitude at a grid point: fractal noise scaled to between 0 and the
+	 * height.
+	 */
+	private float altitude(int x, int z) {
+		float sum = 0;
+		float amplitude = 0.5f;
+		float frequency = 1 / PERIOD;
+		for (int octave = 0; octave < OCTAVES; octave++) {
+			sum += amplitude * noise(x * frequency, z * frequency);
+			amplitude *= 0.5f;
+			frequency *= 2;
+		}
+		// The sum is roughly within -0.5 to 0.5
+		return Math.max((sum + 0.5f) * height, 0);
+	}
+
+	/**
+	 * A random permutation of 0 to 255, repeated twice so it can be indexed
+	 * past 255 without wrapping.
+	 */
+	private static int[] permutation(Random random) {
+		int[] p = new int[512];
+		for (int i = 0; i < 256; i++) {
+			p[i] = i;
+		}
+		for (int i = 255; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = p[i];
+			p[i] = p[j];
+			p[j] = t;
+		}
+		System.arraycopy(p, 0, p, 256, 256);
+		return p;
+	}
+
+	/**
+	 * Gradient noise at the given point, between about -1 and 1.
+	 */
+	private float noise(float x, float z) {
+		int xi = (int) Math.floor(x);
+		int zi = (int) Math.floor(z);
+		float xf = x - xi;
+		float zf = z - zi;
+		xi &= 255;
+		zi &= 255;
+		float u = fade(xf);
+		float v = fade(zf);
+		int a = perm[xi] + zi;
+		int b = perm[xi + 1] + zi;
+		float n00 = grad(perm[a], xf, zf);
+		float n10 = grad(perm[b], xf - 1, zf);
+		float n01 = grad(perm[a + 1], xf, zf - 1);
+		float n11 = grad(perm[b + 1], xf - 1, zf - 1);
+		float nx0 = n00 + u * (n10 - n00);
+		float nx1 = n01 + u * (n11 - n01);
+		return nx0 + v * (nx1 - nx0);
+	}
+
+	private static float fade(float t) {
+		return t * t * t * (t * (t * 6 - 15) + 10);
+	}
+
+	/**
+	 * The dot product of one of eight gradients, chosen by the hash, with the
+	 * given offset.
+	 */
+	private static float grad(int hash, float x, float z) {
+		switch (hash & 7) {
+		case 0: return x + z;
+		case 1: return x - z;
+		case 2: return -x + z;
+		case 3: return -x - z;
+		case 4: return x;
+		case 5: return -x;
+		case 6: return z;
+		default: return -z;
+		}
+	}
+
+	/**
+	 * Add a road that wanders from one side of the terrain to the opposite
+	 * side, one Bezier segment at a time.
+	 */
+	private void addRoad(Terrain terrain, Random random) {
+		float max = size - 2;
+		float step = Math.max(size / 8f, 4);
+		boolean acrossX = random.nextBoolean();
+		// Start somewhere along one side
+		float x = 1;
+		float z = 1 + random.nextFloat() * (max - 1);
+		List<Point2D> spine = new ArrayList<Point2D>();
+		spine.add(point(acrossX, x, z));
+		while (x < max) {
+			float nextX = Math.min(x + step, max);
+			float nextZ = clamp(z + (random.nextFloat() - 0.5f) * step, 1, max);
+			float bend1 = (random.nextFloat() - 0.5f) * step / 2;
+			float bend2 = (random.nextFloat() - 0.5f) * step / 2;
+			spine.add(point(acrossX, x + (nextX - x) / 3, clamp(z + (nextZ - z) / 3 + bend1, 1, max)));
+			spine.add(point(acrossX, x + 2 * (nextX - x) / 3, clamp(z + 2 * (nextZ - z) / 3 + bend2, 1, max)));
+			spine.add(point(acrossX, nextX, nextZ));
+			x = nextX;
+			z = nextZ;
+		}
+		if (spine.size() < 4) {
+			// Too small for even one segment
+			return;
+		}
+		float width = 1 + random.nextFloat();
+		terrain.addRoad(width, spine);
+
+		// Keep trees off the road
+		for (int i = 0; i + 3 < spine.size(); i += 3) {
+			Point2D p0 = spine.get(i);
+			Point2D p1 = spine.get(i + 1);
+			Point2D p2 = spine.get(i + 2);
+			Point2D p3 = spine.get(i + 3);
+			int samples = (int) Math.ceil(step * 4);
+			for (int s = 0; s <= samples; s++) {
+				float t = s / (float) samples;
+				float b0 = (1 - t) * (1 - t) * (1 - t);
+				float b1 = 3 * t * (1 - t) * (1 - t);
+				float b2 = 3 * t * t * (1 - t);
+				float b3 = t * t * t;
+				float px = b0 * p0.getX() + b1 * p1.getX() + b2 * p2.getX() + b3 * p3.getX();
+				float pz = b0 * p0.getY() + b1 * p1.getY() + b2 * p2.getY() + b3 * p3.getY();
+				occupy(px - width, pz - width, px + width, pz + width);
+			}
+		}
+	}
+
+	/**
+	 * A point of a road, swapping the coordinates for roads that run along z.
+	 */
+	private static Point2D point(boolean acrossX, float x, float z) {
+		return acrossX ? new Point2D(x, z) : new Point2D(z, x);
+	}
+
+	private static float clamp(float value, float min, float max) {
+		return Math.max(min, Math.min(value, max));
+	}
+
+	/**
+	 * Dig a pond into the terrain somewhere not already taken by a road or
+	 * another pond. The pond's grid points are flattened to the lowest
+	 * altitude around its edge, with its middle a little lower, so the water
+	 * covers the ground. Gives up after a few tries if there is no room.
+	 */
+	private void addPond(Terrain terrain, Heightfield altitudes, Random random) {
+		for (int attempt = 0; attempt < 20; attempt++) {
+			int w = 3 + random.nextInt(6);
+			int d = 3 + random.nextInt(6);
+			if (w + 2 >= size || d + 2 >= size) {
+				return;
+			}
+			int x0 = 1 + random.nextInt(size - w - 2);
+			int z0 = 1 + random.nextInt(size - d - 2);
+			int x1 = x0 + w;
+			int z1 = z0 + d;
+			if (isOccupied(x0 - 1, z0 - 1, x1 + 1, z1 + 1)) {
+				continue;
+			}
+			float level = Float.POSITIVE_INFINITY;
+			for (int z = z0; z <= z1; z++) {
+				for (int x = x0; x <= x1; x++) {
+					if (x == x0 || x == x1 || z == z0 || z == z1) {
+						level = Math.min(level, altitudes.get(x, z));
+					}
+				}
+			}
+			for (int z = z0; z <= z1; z++) {
+				for (int x = x0; x <= x1; x++) {
+					boolean edge = x == x0 || x == x1 || z == z0 || z == z1;
+					altitudes.set(x, z, edge ? level : Math.max(level - 0.5f, 0));
+				}
+			}
+			List<Point2D> corners = new ArrayList<Point2D>();
+			corners.add(new Point2D(x0, z0));
+			corners.add(new Point2D(x0, z1));
+			corners.add(new Point2D(x1, z1));
+			corners.add(new Point2D(x1, z0));
+			terrain.addPond(corners);
+			occupy(x0 - 1, z0 - 1, x1 + 1, z1 + 1);
+			return;
+		}
+	}
+
+	/**
+	 * Scatter the trees over the cells without a road or pond. Gives up on
+	 * trees that cannot find a free cell after a few tries.
+	 */
+	private void addTrees(Terrain terrain, Random random) {
+		float[] xs = new float[trees];
+		float[] zs = new float[trees];
+		int n = 0;
+		for (int i = 0; i < trees; i++) {
+			for (int attempt = 0; attempt < 10; attempt++) {
+				float x = random.nextFloat() * (size - 1);
+				float z = random.nextFloat() * (size - 1);
+				if (!occupied.get((int) z * size + (int) x)) {
+					xs[n] = x;
+					zs[n] = z;
+					n++;
+					break;
+				}
+			}
+		}
+		terrain.addTrees(xs, zs, n);
+	}
+
+	/**
+	 * Mark the cells overlapping the given rectangle as taken.
+	 */
+	private void occupy(float x0, float z0, float x1, float z1) {
+		int cx0 = Math.max((int) Math.floor(x0), 0);
+		int cz0 = Math.max((int) Math.floor(z0), 0);
+		int cx1 = Math.min((int) Math.floor(x1), size - 1);
+		int cz1 = Math.min((int) Math.floor(z1), size - 1);
+		for (int z = cz0; z <= cz1; z++) {
+			if (cx0 <= cx1) {
+				occupied.set(z * size + cx0, z * size + cx1 + 1);
+			}
+		}
+	}
+
+	/**
+	 * Whether any of the cells overlapping the given rectangle are taken.
+	 */
+	private boolean isOccupied(int x0, int z0, int x1, int z1) {
+		for (int z = Math.max(z0, 0); z <= Math.min(z1, size - 1); z++) {
+			int from = z * size + Math.max(x0, 0);
+			int to = z * size + Math.min(x1, size - 1) + 1;
+			int next = occupied.nextSetBit(from);
+			if (next >= 0 && next < to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
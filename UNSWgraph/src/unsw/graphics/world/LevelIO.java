@@ -1,16 +1,23 @@
 package unsw.graphics.world;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 import unsw.graphics.Vector3;
 import unsw.graphics.geometry.Point2D;
 
@@ -22,81 +29,315 @@ import unsw.graphics.geometry.Point2D;
 public class LevelIO {
 
     /**
-     * Load a terrain object from a JSON file
+     * The first four bytes of a binary level file ("LVLB" in ASCII).
+     */
+    public static final int MAGIC = 0x424C564C;
+
+    /**
+     * The version of the binary level format written by
+     * {@link #saveBinary(Terrain, File)}.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The extension of binary level files.
+     */
+    public static final String BINARY_EXTENSION = ".lvl";
+
+    /**
+     * Load a terrain object from a JSON file. The file is read with a
+     * {@link LevelReader}, so no JSONObject is built for it.
      * 
      * @param mapFile
      * @return
      * @throws FileNotFoundException 
      */
     public static Terrain load(File mapFile) throws FileNotFoundException {
-
         Reader in = new FileReader(mapFile);
-        JSONTokener jtk = new JSONTokener(in);
-        JSONObject jsonTerrain = new JSONObject(jtk);
-
-        int width = jsonTerrain.getInt("width");
-        int depth = jsonTerrain.getInt("depth");
-        
-
-        JSONArray jsonSun = jsonTerrain.getJSONArray("sunlight");
-        float dx = (float)jsonSun.getDouble(0);
-        float dy = (float)jsonSun.getDouble(1);
-        float dz = (float)jsonSun.getDouble(2);
-        
-        Terrain terrain = new Terrain(width, depth, new Vector3(dx, dy, dz));
-       
-        JSONArray jsonAltitude = jsonTerrain.getJSONArray("altitude");
-        for (int i = 0; i < jsonAltitude.length(); i++) {
-            int x = i % width;
-            int z = i / width;
-
-            float h = (float) jsonAltitude.getDouble(i);
-            terrain.setGridAltitude(x, z, h);
-        }
+        return new LevelReader(in).read();
+    }
+
+    /**
+     * Load a terrain object from a binary level file.
+     * 
+     * All values are little-endian. The file is laid out as:
+     * <pre>
+     * int magic, int version
+     * int width, int depth
+     * float[3] sunlight
+     * float[width * depth] altitudes, row by row
+     * int trees, then float x, float z for each tree
+     * int roads, then for each road:
+     *     float width, int points, then float x, float z for each point
+     * int ponds, then for each pond:
+     *     int corners, then float x, float z for each corner
+     * </pre>
+     * 
+     * The file is memory-mapped, so the altitudes are copied straight from the
+     * file into the terrain's heightfield.
+     * 
+     * @param mapFile
+     * @return
+     * @throws IOException 
+     */
+    public static Terrain loadBinary(File mapFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mapFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
 
-        if (jsonTerrain.has("trees")) {
-            JSONArray jsonTrees = jsonTerrain.getJSONArray("trees");
-            for (int i = 0; i < jsonTrees.length(); i++) {
-                JSONObject jsonTree = jsonTrees.getJSONObject(i);
-                float x = (float) jsonTree.getDouble("x");
-                float z = (float) jsonTree.getDouble("z");
-                terrain.addTree(x, z);
+            if (in.getInt() != MAGIC)
+                throw new IOException(mapFile + " is not a binary level file");
+            int version = in.getInt();
+            if (version != VERSION)
+                throw new IOException(mapFile + " has unsupported version " + version);
+
+            int width = in.getInt();
+            int depth = in.getInt();
+            float dx = in.getFloat();
+            float dy = in.getFloat();
+            float dz = in.getFloat();
+            Terrain terrain = new Terrain(width, depth, new Vector3(dx, dy, dz));
+
+            FloatBuffer altitudes = in.asFloatBuffer();
+            altitudes.limit(width * depth);
+            terrain.getHeightfield().copyFrom(altitudes);
+            in.position(in.position() + width * depth * Float.BYTES);
+
+            int trees = in.getInt();
+            float[] xs = new float[trees];
+            float[] zs = new float[trees];
+            for (int i = 0; i < trees; i++) {
+                xs[i] = in.getFloat();
+                zs[i] = in.getFloat();
             }
-        }
-        
-        if (jsonTerrain.has("roads")) {
-            JSONArray jsonRoads = jsonTerrain.getJSONArray("roads");
-            for (int i = 0; i < jsonRoads.length(); i++) {
-                JSONObject jsonRoad = jsonRoads.getJSONObject(i);
-                float w = (float) jsonRoad.getDouble("width");
-                
-                JSONArray jsonSpine = jsonRoad.getJSONArray("spine");
-                List<Point2D> spine = new ArrayList<Point2D>();
-                
-                
-                for (int j = 0; j < jsonSpine.length()/2; j++) {
-                    spine.add(new Point2D((float)jsonSpine.getDouble(2*j), (float)jsonSpine.getDouble(2*j+1)));
-                }
-                terrain.addRoad(w, spine);
+            terrain.addTrees(xs, zs, trees);
+
+            int roads = in.getInt();
+            for (int i = 0; i < roads; i++) {
+                float w = in.getFloat();
+                terrain.addRoad(w, readPoints(in));
+            }
+
+            int ponds = in.getInt();
+            for (int i = 0; i < ponds; i++) {
+                terrain.addPond(readPoints(in));
             }
+            return terrain;
+        } finally {
+            file.close();
         }
-        
-        if (jsonTerrain.has("ponds")) {
-            JSONArray jsonPonds = jsonTerrain.getJSONArray("ponds");
-            for (int i = 0; i < jsonPonds.length(); i++) {
-                JSONObject jsonPond = jsonPonds.getJSONObject(i);
-                
-                JSONArray jsonCorner = jsonPond.getJSONArray("corner");
-                List<Point2D> corner = new ArrayList<Point2D>();
-                
-                
-                for (int j = 0; j < jsonCorner.length()/2; j++) {
-                    corner.add(new Point2D((float)jsonCorner.getDouble(2*j), (float)jsonCorner.getDouble(2*j+1)));
+    }
+
+    /**
+     * Save a terrain object to a JSON level file that {@link #load(File)} can
+     * read. The file is written as it goes, so no JSONObject is built for it.
+     * 
+     * @param terrain
+     * @param mapFile
+     * @throws IOException
+     */
+    public static void save(Terrain terrain, File mapFile) throws IOException {
+        int width = terrain.getWidth();
+        int depth = terrain.getDepth();
+        Vector3 sunlight = terrain.getSunlight();
+        Writer out = new BufferedWriter(new FileWriter(mapFile), 1 << 16);
+        try {
+            out.write("{\n    \"width\" : " + width + ",\n    \"depth\" : " + depth
+                    + ",\n\n    \"sunlight\" : [ " + sunlight.getX() + ", "
+                    + sunlight.getY() + ", " + sunlight.getZ() + " ],\n\n");
+
+            out.write("    \"altitude\" : [\n");
+            Heightfield altitudes = terrain.getHeightfield();
+            for (int z = 0; z < depth; z++) {
+                out.write("        ");
+                for (int x = 0; x < width; x++) {
+                    out.write(Float.toString(altitudes.get(x, z)));
+                    out.write(x < width - 1 || z < depth - 1 ? ", " : "");
                 }
-                terrain.addPond(corner);
+                out.write("\n");
+            }
+            out.write("    ],\n\n");
+
+            out.write("    \"trees\" : [\n");
+            List<Tree> trees = terrain.trees();
+            for (int i = 0; i < trees.size(); i++) {
+                Tree tree = trees.get(i);
+                out.write("        { \"x\" : " + tree.getPosition().getX()
+                        + ", \"z\" : " + tree.getPosition().getZ() + " }"
+                        + (i < trees.size() - 1 ? ",\n" : "\n"));
+            }
+            out.write("    ],\n\n");
+
+            out.write("    \"roads\" : [\n");
+            List<Road> roads = terrain.roads();
+            for (int i = 0; i < roads.size(); i++) {
+                Road road = roads.get(i);
+                List<Point2D> points = new ArrayList<Point2D>();
+                for (int j = 0; j < road.controlPoints(); j++)
+                    points.add(road.controlPoint(j));
+                out.write("        { \"width\" : " + (float) road.width()
+                        + ", \"spine\" : ");
+                writePoints(out, points);
+                out.write(i < roads.size() - 1 ? " },\n" : " }\n");
+            }
+            out.write("    ],\n\n");
+
+            out.write("    \"ponds\" : [\n");
+            List<Pond> ponds = terrain.ponds();
+            for (int i = 0; i < ponds.size(); i++) {
+                out.write("        { \"corner\" : ");
+                writePoints(out, ponds.get(i).corners());
+                out.write(i < ponds.size() - 1 ? " },\n" : " }\n");
             }
+            out.write("    ]\n}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writePoints(Writer out, List<Point2D> points) throws IOException {
+        out.write("[ ");
+        for (int i = 0; i < points.size(); i++) {
+            Point2D point = points.get(i);
+            out.write(point.getX() + ", " + point.getY());
+            out.write(i < points.size() - 1 ? ", " : " ]");
+        }
+        if (points.isEmpty())
+            out.write("]");
+    }
+
+    /**
+     * Save a terrain object to a binary level file. See
+     * {@link #loadBinary(File)} for the format.
+     * 
+     * @param terrain
+     * @param mapFile
+     * @throws IOException
+     */
+    public static void saveBinary(Terrain terrain, File mapFile) throws IOException {
+        int width = terrain.getWidth();
+        int depth = terrain.getDepth();
+        List<Tree> trees = terrain.trees();
+        List<Road> roads = terrain.roads();
+        List<Pond> ponds = terrain.ponds();
+
+        // The header, sunlight and section counts, then the sections
+        long size = 7 * Integer.BYTES + 3 * Float.BYTES
+                + (long) width * depth * Float.BYTES
+                + trees.size() * 2 * Float.BYTES;
+        for (Road road : roads)
+            size += Float.BYTES + Integer.BYTES + road.controlPoints() * 2 * Float.BYTES;
+        for (Pond pond : ponds)
+            size += Integer.BYTES + pond.corners().size() * 2 * Float.BYTES;
+
+        ByteBuffer out = ByteBuffer.allocateDirect((int) size);
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(width);
+        out.putInt(depth);
+        Vector3 sunlight = terrain.getSunlight();
+        out.putFloat(sunlight.getX());
+        out.putFloat(sunlight.getY());
+        out.putFloat(sunlight.getZ());
+
+        terrain.getHeightfield().copyTo(out.asFloatBuffer());
+        out.position(out.position() + width * depth * Float.BYTES);
+
+        out.putInt(trees.size());
+        for (Tree tree : trees) {
+            out.putFloat(tree.getPosition().getX());
+            out.putFloat(tree.getPosition().getZ());
+        }
+
+        out.putInt(roads.size());
+        for (Road road : roads) {
+            out.putFloat((float) road.width());
+            List<Point2D> points = new ArrayList<Point2D>();
+            for (int j = 0; j < road.controlPoints(); j++)
+                points.add(road.controlPoint(j));
+            writePoints(out, points);
+        }
+
+        out.putInt(ponds.size());
+        for (Pond pond : ponds) {
+            writePoints(out, pond.corners());
+        }
+
+        out.flip();
+        FileOutputStream file = new FileOutputStream(mapFile);
+        try {
+            FileChannel channel = file.getChannel();
+            while (out.hasRemaining())
+                channel.write(out);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static List<Point2D> readPoints(ByteBuffer in) {
+        int n = in.getInt();
+        List<Point2D> points = new ArrayList<Point2D>(n);
+        for (int j = 0; j < n; j++) {
+            float x = in.getFloat();
+            float z = in.getFloat();
+            points.add(new Point2D(x, z));
+        }
+        return points;
+    }
+
+    private static void writePoints(ByteBuffer out, List<Point2D> points) {
+        out.putInt(points.size());
+        for (Point2D p : points) {
+            out.putFloat(p.getX());
+            out.putFloat(p.getY());
+        }
+    }
+
+    /**
+     * Load a terrain object from a level file in either format, going by the
+     * file's extension.
+     * 
+     * @param mapFile
+     * @return
+     * @throws IOException
+     */
+    public static Terrain read(File mapFile) throws IOException {
+        if (mapFile.getName().endsWith(BINARY_EXTENSION))
+            return loadBinary(mapFile);
+        return load(mapFile);
+    }
+
+    /**
+     * Convert JSON level files to binary level files next to them, with the
+     * same name but the binary extension. With no arguments, every JSON level
+     * file in res/worlds is converted.
+     * 
+     * @param args - The JSON level files to convert
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        File[] files;
+        if (args.length > 0) {
+            files = new File[args.length];
+            for (int i = 0; i < args.length; i++)
+                files[i] = new File(args[i]);
+        } else {
+            files = new File("res/worlds").listFiles();
+            if (files == null)
+                files = new File[0];
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".json"))
+                continue;
+            File out = new File(file.getParentFile(),
+                    name.substring(0, name.length() - ".json".length()) + BINARY_EXTENSION);
+            saveBinary(load(file), out);
+            System.out.println(file + " -> " + out + " (" + out.length() + " bytes)");
         }
-        return terrain;
     }
 
 }
@@ -0,0 +1,275 @@
+package unsw.graphics.world;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import unsw.graphics.Vector3;
+import unsw.graphics.geometry.Point2D;
+
+/**
+ * Reads a level in JSON format straight from a {@link JSONTokener}.
+ *
+ * Unlike parsing the level into a JSONObject, no tree of JSON values is built.
+ * Numbers are stored in primitive arrays as soon as they are read, and the
+ * altitudes go straight into the terrain's heightfield once its size is known.
+ * Keys other than those of a level are skipped.
+ */
+public class LevelReader {
+
+	private JSONTokener tokener;
+
+	private int width = -1;
+	private int depth = -1;
+	private Vector3 sunlight;
+
+	// The altitudes, once the width and depth are known
+	private Heightfield altitudes;
+
+	// Altitudes read before the width and depth
+	private float[] pending = new float[0];
+	private int pendingCount;
+
+	private float[] treeXs = new float[16];
+	private float[] treeZs = new float[16];
+	private int trees;
+
+	private List<Float> roadWidths = new ArrayList<Float>();
+	private List<List<Point2D>> roadSpines = new ArrayList<List<Point2D>>();
+	private List<List<Point2D>> ponds = new ArrayList<List<Point2D>>();
+
+	public LevelReader(Reader in) {
+		this(new JSONTokener(in));
+	}
+
+	public LevelReader(JSONTokener tokener) {
+		this.tokener = tokener;
+	}
+
+	/**
+	 * Read the level and make a terrain of it.
+	 * @return terrain
+	 * @throws JSONException if the level is not valid
+	 */
+	public Terrain read() throws JSONException {
+		beginObject();
+		String key;
+		while ((key = nextKey()) != null) {
+			if (key.equals("width")) {
+				width = nextInt();
+				allocate();
+			} else if (key.equals("depth")) {
+				depth = nextInt();
+				allocate();
+			} else if (key.equals("sunlight")) {
+				readSunlight();
+			} else if (key.equals("altitude")) {
+				readAltitudes();
+			} else if (key.equals("trees")) {
+				readTrees();
+			} else if (key.equals("roads")) {
+				readRoads();
+			} else if (key.equals("ponds")) {
+				readPonds();
+			} else {
+				tokener.nextValue();
+			}
+		}
+
+		if (width < 0 || depth < 0)
+			throw new JSONException("Level is missing its width or depth");
+		if (sunlight == null)
+			throw new JSONException("Level is missing its sunlight");
+		allocate();
+
+		Terrain terrain = new Terrain(altitudes, sunlight);
+		terrain.addTrees(treeXs, treeZs, trees);
+		for (int i = 0; i < roadWidths.size(); i++) {
+			terrain.addRoad(roadWidths.get(i), roadSpines.get(i));
+		}
+		for (List<Point2D> corner : ponds) {
+			terrain.addPond(corner);
+		}
+		return terrain;
+	}
+
+	/**
+	 * Make the heightfield if the width and depth are both known, copying in
+	 * any altitudes that were read before them.
+	 */
+	private void allocate() {
+		if (altitudes != null || width < 0 || depth < 0)
+			return;
+		altitudes = new Heightfield(width, depth);
+		int n = Math.min(pendingCount, width * depth);
+		System.arraycopy(pending, 0, altitudes.array(), 0, n);
+		pending = null;
+	}
+
+	private void readSunlight() {
+		beginArray();
+		float[] v = new float[3];
+		int n = 0;
+		while (hasNext(']')) {
+			float f = nextFloat();
+			if (n < 3)
+				v[n++] = f;
+		}
+		if (n < 3)
+			throw tokener.syntaxError("Sunlight needs three components");
+		sunlight = new Vector3(v[0], v[1], v[2]);
+	}
+
+	private void readAltitudes() {
+		beginArray();
+		int i = 0;
+		while (hasNext(']')) {
+			float h = nextFloat();
+			if (altitudes != null) {
+				if (i < width * depth)
+					altitudes.array()[i] = h;
+			} else {
+				if (pendingCount == pending.length)
+					pending = Arrays.copyOf(pending, Math.max(16, pending.length * 2));
+				pending[pendingCount++] = h;
+			}
+			i++;
+		}
+	}
+
+	private void readTrees() {
+		beginArray();
+		while (hasNext(']')) {
+			float x = 0;
+			float z = 0;
+			beginObject();
+			String key;
+			while ((key = nextKey()) != null) {
+				if (key.equals("x"))
+					x = nextFloat();
+				else if (key.equals("z"))
+					z = nextFloat();
+				else
+					tokener.nextValue();
+			}
+			if (trees == treeXs.length) {
+				treeXs = Arrays.copyOf(treeXs, trees * 2);
+				treeZs = Arrays.copyOf(treeZs, trees * 2);
+			}
+			treeXs[trees] = x;
+			treeZs[trees] = z;
+			trees++;
+		}
+	}
+
+	private void readRoads() {
+		beginArray();
+		while (hasNext(']')) {
+			float w = 0;
+			List<Point2D> spine = new ArrayList<Point2D>();
+			beginObject();
+			String key;
+			while ((key = nextKey()) != null) {
+				if (key.equals("width"))
+					w = nextFloat();
+				else if (key.equals("spine"))
+					spine = nextPoints();
+				else
+					tokener.nextValue();
+			}
+			roadWidths.add(w);
+			roadSpines.add(spine);
+		}
+	}
+
+	private void readPonds() {
+		beginArray();
+		while (hasNext(']')) {
+			List<Point2D> corner = new ArrayList<Point2D>();
+			beginObject();
+			String key;
+			while ((key = nextKey()) != null) {
+				if (key.equals("corner"))
+					corner = nextPoints();
+				else
+					tokener.nextValue();
+			}
+			ponds.add(corner);
+		}
+	}
+
+	/**
+	 * Read an array of coordinates x0, z0, x1, z1, ... as a list of points. A
+	 * trailing unpaired coordinate is ignored.
+	 * @return points
+	 */
+	private List<Point2D> nextPoints() {
+		List<Point2D> points = new ArrayList<Point2D>();
+		beginArray();
+		while (hasNext(']')) {
+			float x = nextFloat();
+			if (!hasNext(']'))
+				break;
+			float z = nextFloat();
+			points.add(new Point2D(x, z));
+		}
+		return points;
+	}
+
+	private void beginObject() {
+		if (tokener.nextClean() != '{')
+			throw tokener.syntaxError("A JSONObject text must begin with '{'");
+	}
+
+	private void beginArray() {
+		if (tokener.nextClean() != '[')
+			throw tokener.syntaxError("A JSONArray text must start with '['");
+	}
+
+	/**
+	 * Determine whether another value follows in the current array or object,
+	 * skipping the comma before it.
+	 * @param close The character that ends the array or object
+	 * @return false if the end was reached (and consumed)
+	 */
+	private boolean hasNext(char close) {
+		char c = tokener.nextClean();
+		if (c == ',')
+			c = tokener.nextClean();
+		if (c == close)
+			return false;
+		if (c == 0)
+			throw tokener.syntaxError("Expected a '" + close + "'");
+		tokener.back();
+		return true;
+	}
+
+	/**
+	 * Read the next key of the current object and the colon after it.
+	 * @return key, or null at the end of the object
+	 */
+	private String nextKey() {
+		if (!hasNext('}'))
+			return null;
+		char c = tokener.nextClean();
+		if (c != '"' && c != '\'')
+			throw tokener.syntaxError("Expected a quoted key");
+		String key = tokener.nextString(c);
+		if (tokener.nextClean() != ':')
+			throw tokener.syntaxError("Expected a ':' after a key");
+		return key;
+	}
+
+	private float nextFloat() {
+		return (float) tokener.nextNumber();
+	}
+
+	private int nextInt() {
+		return (int) tokener.nextNumber();
+	}
+
+}
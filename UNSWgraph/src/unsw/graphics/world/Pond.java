@@ -7,7 +7,9 @@ import java.util.List;
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
+import unsw.graphics.AssetLoader;
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.GLState;
 import unsw.graphics.Shader;
 import unsw.graphics.Texture;
 import unsw.graphics.geometry.Point2D;
@@ -16,10 +18,29 @@ import unsw.graphics.geometry.TriangleMesh;
 
 public class Pond {
 
+	/**
+	 * The number of frames in the water animation.
+	 */
+	private static final int FRAMES = 120;
+
+	// The uniforms the pond sets
+	private static final Shader.Uniform USE_TEX_ARRAY = Shader.uniform("useTexArray");
+	private static final Shader.Uniform LAYER = Shader.uniform("layer");
+
+	/**
+	 * Every frame of the water animation, one per layer. Shared by all ponds.
+	 */
+	private static Texture waterTexture;
+
+	/**
+	 * The number of initialised ponds using the water texture.
+	 */
+	private static int users;
+
 	private List<Point2D> points;
 	private Terrain terrain;
-	private Texture texture;
 	private TriangleMesh mesh;
+	private int layer;
 
 	public Pond(List<Point2D> corner, Terrain terrain) {
 		this.points = corner;
@@ -27,14 +48,19 @@ public class Pond {
 	}
 	
 	/**
-	 * Set the texture of the pond based on the frame number.
-	 * @param gl
+	 * Get the corners of the pond.
+	 * @return corners
+	 */
+	public List<Point2D> corners() {
+		return points;
+	}
+
+	/**
+	 * Set the frame of the water animation based on the frame number.
 	 * @param n frame number
 	 */
-	public void setTexture(GL3 gl, int n) {
-		int r = n % 120 + 1;
-		String filePath = "res/textures/water/water_" + Integer.toString(r) + ".jpg";
-		texture = new Texture(gl, filePath, "jpg", true);
+	public void setFrame(int n) {
+		layer = n % FRAMES;
 	}
 
 	/**
@@ -70,24 +96,74 @@ public class Pond {
 		return mesh;
 	}
 
-	public void init(GL3 gl, int n) {
-		setTexture(gl, n);
+	/**
+	 * The files of the frames of the water animation.
+	 * @return file names
+	 */
+	private static String[] frameFiles() {
+		String[] filePaths = new String[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			filePaths[i] = "res/textures/water/water_" + Integer.toString(i + 1) + ".jpg";
+		}
+		return filePaths;
+	}
+
+	/**
+	 * Start decoding the frames of the water animation in the background.
+	 */
+	public static void prefetch() {
+		if (waterTexture == null) {
+			for (String file : frameFiles()) {
+				AssetLoader.prefetchImage(file);
+			}
+		}
+	}
+
+	/**
+	 * Make the mesh of the pond. This does not use OpenGL, so it can be done on
+	 * any thread before {@link #init(GL3, int)}.
+	 */
+	public void build() {
 		mesh = this.makeMesh();
+	}
+
+	public void init(GL3 gl, int n) {
+		if (waterTexture == null) {
+			waterTexture = new Texture(gl, frameFiles(), "jpg", true);
+		}
+		users++;
+		setFrame(n);
+		if (mesh == null) {
+			build();
+		}
 		mesh.init(gl);
 	}
 
 	public void draw(GL3 gl, CoordFrame3D frame) {
-		gl.glEnable(GL3.GL_POLYGON_OFFSET_POINT);
-		gl.glEnable(GL3.GL_POLYGON_OFFSET_LINE);
-		gl.glEnable(GL3.GL_POLYGON_OFFSET_FILL);
-		gl.glPolygonOffset(-1.0f, -1.0f);
+		// The offset is left on, as for roads
+		GLState.enable(gl, GL3.GL_POLYGON_OFFSET_POINT);
+		GLState.enable(gl, GL3.GL_POLYGON_OFFSET_LINE);
+		GLState.enable(gl, GL3.GL_POLYGON_OFFSET_FILL);
+		GLState.polygonOffset(gl, -1.0f, -1.0f);
 		Shader.setPenColor(gl, Color.WHITE);
-		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getId());
+		// The water frames live on texture unit 1 so the 2D texture on unit 0
+		// is left alone.
+		GLState.activeTexture(gl, GL.GL_TEXTURE1);
+		GLState.bindTexture(gl, waterTexture.getTarget(), waterTexture.getId());
+		GLState.activeTexture(gl, GL.GL_TEXTURE0);
+		Shader.setInt(gl, USE_TEX_ARRAY, 1);
+		Shader.setInt(gl, LAYER, layer);
 		mesh.draw(gl, frame);
-		gl.glPolygonOffset(0.0f, 0.0f);
-		gl.glDisable(GL3.GL_POLYGON_OFFSET_POINT);
-		gl.glDisable(GL3.GL_POLYGON_OFFSET_LINE);
-		gl.glDisable(GL3.GL_POLYGON_OFFSET_FILL);
+		Shader.setInt(gl, USE_TEX_ARRAY, 0);
+	}
+
+	public void destroy(GL3 gl) {
+		mesh.destroy(gl);
+		users--;
+		if (users == 0) {
+			waterTexture.destroy(gl);
+			waterTexture = null;
+		}
 	}
 
 }
@@ -4,12 +4,12 @@ import java.awt.Color;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.GLState;
 import unsw.graphics.Shader;
-import unsw.graphics.Texture;
+import unsw.graphics.TextureCache;
 import unsw.graphics.geometry.Point2D;
 import unsw.graphics.geometry.Point3D;
 import unsw.graphics.geometry.TriangleMesh;
@@ -21,10 +21,15 @@ import unsw.graphics.geometry.TriangleMesh;
  */
 public class Road {
 
+	/**
+	 * The distance in t between consecutive points on the spine of the mesh.
+	 */
+	private static final float STEP = 0.002f;
+
 	private List<Point2D> points;
 	private float width;
 	private Terrain terrain;
-	private Texture texture;
+	private TextureCache.Handle texture;
 	private TriangleMesh mesh;
 
 	/**
@@ -54,6 +59,14 @@ public class Road {
 		return points.size() / 3;
 	}
 
+	/**
+	 * Get the number of control points.
+	 * @return count
+	 */
+	public int controlPoints() {
+		return points.size();
+	}
+
 	/**
 	 * Get the specified control point.
 	 * @param i
@@ -70,6 +83,23 @@ public class Road {
 	 * @return point
 	 */
 	public Point3D point(float t) {
+		float[] xs = new float[1];
+		float[] zs = new float[1];
+		spine(t, xs, zs, 0);
+		float y = terrain.altitude(xs[0], zs[0]);
+
+		return new Point3D(xs[0], y, zs[0]);
+	}
+
+	/**
+	 * Get the x and z coordinates of a point on the spine, without its
+	 * altitude, and store them at index j of the given arrays.
+	 * @param t
+	 * @param xs
+	 * @param zs
+	 * @param j
+	 */
+	private void spine(float t, float[] xs, float[] zs, int j) {
 		int i = (int)Math.floor(t);
 		t = t - i;
 
@@ -80,12 +110,8 @@ public class Road {
 		Point2D p2 = points.get(i++);
 		Point2D p3 = points.get(i++);
 
-
-		float x = b(0, t) * p0.getX() + b(1, t) * p1.getX() + b(2, t) * p2.getX() + b(3, t) * p3.getX();
-		float z = b(0, t) * p0.getY() + b(1, t) * p1.getY() + b(2, t) * p2.getY() + b(3, t) * p3.getY();
-		float y = terrain.altitude(x, z);
-
-		return new Point3D(x, y, z);
+		xs[j] = b(0, t) * p0.getX() + b(1, t) * p1.getX() + b(2, t) * p2.getX() + b(3, t) * p3.getX();
+		zs[j] = b(0, t) * p0.getY() + b(1, t) * p1.getY() + b(2, t) * p2.getY() + b(3, t) * p3.getY();
 	}
 
 	/**
@@ -182,19 +208,31 @@ public class Road {
 	 * @return mesh
 	 */
 	public TriangleMesh makeMesh() {
+		// Sample the spine once per step, then look up all the altitudes in
+		// one batch. The last sample is kept just below size(), which would
+		// index past the last segment.
+		int n = Math.round(this.size() / STEP) + 1;
+		float end = Math.nextDown(this.size());
+		float[] xs = new float[n];
+		float[] ys = new float[n];
+		float[] zs = new float[n];
+		Point3D[] normals = new Point3D[n];
+		for (int k = 0; k < n; k++) {
+			float t = Math.min(k * STEP, end);
+			spine(t, xs, zs, k);
+			normals[k] = normal(tangent(t));
+		}
+		terrain.altitudes(xs, zs, ys, n);
+
 		List<Point3D> verticesList = new ArrayList<Point3D>();
 		List<Point2D> texList = new ArrayList<Point2D>();
-		for (float t = 0; t < this.size()-0.002; t += 0.002) {
-			Point3D currentSpine = point(t);
-			Point3D nextSpine = point((float) (t+0.002));
-			Point3D currentTangent = tangent(t);
-			Point3D nextTangent = tangent((float) (t+0.002));
-			Point3D currentNormal = normal(currentTangent);
-			Point3D nextNormal = normal(nextTangent);
-			Point3D currentLeft = new Point3D(currentSpine.getX()-currentNormal.getX(), currentSpine.getY(), currentSpine.getZ()-currentNormal.getZ());
-			Point3D currentRight = new Point3D(currentSpine.getX()+currentNormal.getX(), currentSpine.getY(), currentSpine.getZ()+currentNormal.getZ());
-			Point3D nextLeft = new Point3D(nextSpine.getX()-nextNormal.getX(), nextSpine.getY(), nextSpine.getZ()-nextNormal.getZ());
-			Point3D nextRight = new Point3D(nextSpine.getX()+nextNormal.getX(), nextSpine.getY(), nextSpine.getZ()+nextNormal.getZ());
+		for (int k = 0; k < n - 1; k++) {
+			Point3D currentNormal = normals[k];
+			Point3D nextNormal = normals[k+1];
+			Point3D currentLeft = new Point3D(xs[k]-currentNormal.getX(), ys[k], zs[k]-currentNormal.getZ());
+			Point3D currentRight = new Point3D(xs[k]+currentNormal.getX(), ys[k], zs[k]+currentNormal.getZ());
+			Point3D nextLeft = new Point3D(xs[k+1]-nextNormal.getX(), ys[k+1], zs[k+1]-nextNormal.getZ());
+			Point3D nextRight = new Point3D(xs[k+1]+nextNormal.getX(), ys[k+1], zs[k+1]+nextNormal.getZ());
 
 			verticesList.add(currentLeft);
 			texList.add(new Point2D(currentLeft.getX(), currentLeft.getZ()));
@@ -214,25 +252,38 @@ public class Road {
 		return mesh;
 	}
 
-	public void init(GL3 gl) {
-		texture = new Texture(gl, "res/textures/rock.bmp", "bmp", true);
+	/**
+	 * Make the mesh of the road. This does not use OpenGL, so it can be done on
+	 * any thread before {@link #init(GL3)}.
+	 */
+	public void build() {
 		mesh = this.makeMesh();
+	}
+
+	public void init(GL3 gl) {
+		texture = TextureCache.get(gl, "res/textures/rock.bmp", "bmp", true);
+		if (mesh == null) {
+			build();
+		}
 		mesh.init(gl);
 	}
 
 	public void draw(GL3 gl, CoordFrame3D frame) {
-		// Prevent the z fighting
-		gl.glEnable(GL3.GL_POLYGON_OFFSET_POINT);
-		gl.glEnable(GL3.GL_POLYGON_OFFSET_LINE);
-		gl.glEnable(GL3.GL_POLYGON_OFFSET_FILL);
-		gl.glPolygonOffset(-1.0f, -1.0f);
+		// Prevent the z fighting. The offset is left on for the roads and
+		// ponds drawn after this one; the terrain turns it off once they are
+		// all drawn.
+		GLState.enable(gl, GL3.GL_POLYGON_OFFSET_POINT);
+		GLState.enable(gl, GL3.GL_POLYGON_OFFSET_LINE);
+		GLState.enable(gl, GL3.GL_POLYGON_OFFSET_FILL);
+		GLState.polygonOffset(gl, -1.0f, -1.0f);
 		Shader.setPenColor(gl, Color.WHITE);
-		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getId());
+		TextureCache.bind(gl, texture);
 		mesh.draw(gl, frame);
-		gl.glPolygonOffset(0.0f, 0.0f);
-		gl.glDisable(GL3.GL_POLYGON_OFFSET_POINT);
-		gl.glDisable(GL3.GL_POLYGON_OFFSET_LINE);
-		gl.glDisable(GL3.GL_POLYGON_OFFSET_FILL);
+	}
+
+	public void destroy(GL3 gl) {
+		mesh.destroy(gl);
+		TextureCache.release(gl, texture);
 	}
 
 }
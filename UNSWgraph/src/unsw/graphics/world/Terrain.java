@@ -2,12 +2,21 @@ package unsw.graphics.world;
 
 
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.GLBuffers;
 
+import unsw.graphics.AssetLoader;
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.Frustum;
+import unsw.graphics.GLState;
+import unsw.graphics.Point2DBuffer;
+import unsw.graphics.Point3DBuffer;
+import unsw.graphics.Profiler;
 import unsw.graphics.Vector3;
 import unsw.graphics.geometry.Point2D;
 import unsw.graphics.geometry.Point3D;
@@ -22,14 +31,39 @@ import unsw.graphics.geometry.TriangleMesh;
  */
 public class Terrain {
 
+	/**
+	 * The number of grid cells along each side of a tile.
+	 */
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * The number of levels of detail a tile can be drawn at. At level l only
+	 * every (2^l)th grid point is used, so the coarsest level draws a whole
+	 * tile as two triangles.
+	 */
+	public static final int LOD_LEVELS = 7;
+
+	// The phases of drawing the terrain, for profiling
+	private static final Profiler.Scope TERRAIN = Profiler.scope("terrain");
+	private static final Profiler.Scope TREES = Profiler.scope("trees");
+	private static final Profiler.Scope ROADS = Profiler.scope("roads");
+	private static final Profiler.Scope PONDS = Profiler.scope("ponds");
+
 	private int width;
 	private int depth;
-	private float[][] altitudes;
+	private Heightfield altitudes;
 	private List<Tree> trees;
 	private List<Road> roads;
 	private List<Pond> ponds;
 	private Vector3 sunlight;
-	private TriangleMesh mesh;
+	private List<TerrainTile> tiles;
+	private int tilesX;
+	private int tilesZ;
+	private TerrainLod lod;
+	private float lodThreshold;
+	private float lodScale;
+	private int drawnTriangles;
+	private Forest forest;
 
 	/**
 	 * Create a new terrain.
@@ -37,13 +71,24 @@ public class Terrain {
 	 * @param depth The number of vertices in the z-direction
 	 */
 	public Terrain(int width, int depth, Vector3 sunlight) {
-		this.width = width;
-		this.depth = depth;
-		altitudes = new float[width][depth];
+		this(new Heightfield(width, depth), sunlight);
+	}
+
+	/**
+	 * Create a new terrain with the given altitudes.
+	 * @param altitudes
+	 * @param sunlight
+	 */
+	public Terrain(Heightfield altitudes, Vector3 sunlight) {
+		this.width = altitudes.getWidth();
+		this.depth = altitudes.getDepth();
+		this.altitudes = altitudes;
 		trees = new ArrayList<Tree>();
 		roads = new ArrayList<Road>();
 		ponds = new ArrayList<Pond>();
 		this.sunlight = sunlight;
+		this.lodThreshold = 2;
+		this.lodScale = 0;
 	}
 
 	public int getWidth() {
@@ -62,6 +107,55 @@ public class Terrain {
 		return roads;
 	}
 
+	public List<Pond> ponds() {
+		return ponds;
+	}
+
+	/**
+	 * Get the largest screen-space error, in pixels, that choosing a lower
+	 * level of detail for a tile may cause.
+	 * @return threshold
+	 */
+	public float getLodThreshold() {
+		return lodThreshold;
+	}
+
+	/**
+	 * Set the largest screen-space error, in pixels, that choosing a lower
+	 * level of detail for a tile may cause. Larger values draw fewer
+	 * triangles.
+	 * @param pixels
+	 */
+	public void setLodThreshold(float pixels) {
+		this.lodThreshold = pixels;
+	}
+
+	/**
+	 * Set the perspective projection the terrain is drawn with, which is
+	 * needed to turn geometric errors into screen-space errors.
+	 * @param fovy The vertical field of view in degrees
+	 * @param viewportHeight The height of the viewport in pixels
+	 */
+	public void setLodProjection(float fovy, int viewportHeight) {
+		this.lodScale = (float) (viewportHeight / (2 * Math.tan(Math.toRadians(fovy) / 2)));
+	}
+
+	/**
+	 * Get the number of triangles in the tiles drawn by the last call to draw.
+	 * @return count
+	 */
+	public int getDrawnTriangles() {
+		return drawnTriangles;
+	}
+
+	/**
+	 * Get the altitudes of the grid points.
+	 * @return heightfield
+	 */
+	public Heightfield getHeightfield() {
+		return altitudes;
+	}
+
 	public Vector3 getSunlight() {
 		return sunlight;
 	}
@@ -84,7 +178,7 @@ public class Terrain {
 	 * @return altitude
 	 */
 	public double getGridAltitude(int x, int z) {
-		return altitudes[x][z];
+		return altitudes.get(x, z);
 	}
 
 	/**
@@ -93,7 +187,7 @@ public class Terrain {
 	 * @param z
 	 */
 	public void setGridAltitude(int x, int z, float h) {
-		altitudes[x][z] = h;
+		altitudes.set(x, z, h);
 	}
 
 	/**
@@ -112,28 +206,28 @@ public class Terrain {
 		int floorX = (int) Math.floor(x);
 		int floorZ = (int) Math.floor(z);
 		if (x == floorX && z == floorZ) {
-			return altitudes[floorX][floorZ];
+			return altitudes.get(floorX, floorZ);
 		}
 		// check which triangle the point is locating in
 		float x1,y1,z1;
 		if ((x-floorX+z-floorZ) > 1) {
 			x1 = floorX+1;
-			y1 = altitudes[floorX+1][floorZ+1];
+			y1 = altitudes.get(floorX+1, floorZ+1);
 			z1 = floorZ+1;
 		} else {
 			x1 = floorX;
-			y1 = altitudes[floorX][floorZ];
+			y1 = altitudes.get(floorX, floorZ);
 			z1 = floorZ;
 		}
 
 		float x2,y2,z2;
 		x2 = floorX+1;
-		y2 = altitudes[floorX+1][floorZ];
+		y2 = altitudes.get(floorX+1, floorZ);
 		z2 = floorZ;
 
 		float x3,y3,z3;
 		x3 = floorX;
-		y3 = altitudes[floorX][floorZ+1];
+		y3 = altitudes.get(floorX, floorZ+1);
 		z3 = floorZ+1;
 
 		float determinant = (z2-z3)*(x1-x3) + (x3-x2)*(z1-z3);
@@ -144,6 +238,56 @@ public class Terrain {
 		return altitude;
 	}
 
+	/**
+	 * Get the altitudes at a batch of arbitrary points, as if by calling
+	 * altitude(xs[i], zs[i]) for each of the first n points.
+	 * 
+	 * This reads the altitudes straight from the heightfield and uses the
+	 * barycentric weights of the grid triangle in closed form, so the loop has
+	 * no calls or divisions and only a select between the two triangles of a
+	 * cell. Points exactly on the far edges of the terrain are interpolated in
+	 * the last cell instead of reading past the grid.
+	 * @param xs
+	 * @param zs
+	 * @param out The array to store the altitudes in
+	 * @param n The number of points
+	 */
+	public void altitudes(float[] xs, float[] zs, float[] out, int n) {
+		if (width < 2 || depth < 2) {
+			for (int i = 0; i < n; i++) {
+				out[i] = altitude(xs[i], zs[i]);
+			}
+			return;
+		}
+		float[] h = altitudes.array();
+		float maxX = width-1;
+		float maxZ = depth-1;
+		int lastCellX = width-2;
+		int lastCellZ = depth-2;
+		for (int i = 0; i < n; i++) {
+			float x = xs[i];
+			float z = zs[i];
+			if (x < 0 || x > maxX || z < 0 || z > maxZ) {
+				out[i] = 0;
+				continue;
+			}
+			// x and z are non-negative so the cast is the floor
+			int cellX = Math.min((int) x, lastCellX);
+			int cellZ = Math.min((int) z, lastCellZ);
+			float fx = x - cellX;
+			float fz = z - cellZ;
+			int k = cellZ*width + cellX;
+			float h00 = h[k];
+			float h10 = h[k+1];
+			float h01 = h[k+width];
+			float h11 = h[k+width+1];
+			// The cell is split along the diagonal from (1,0) to (0,1)
+			out[i] = (fx + fz > 1)
+					? h11 + (1-fx)*(h01-h11) + (1-fz)*(h10-h11)
+					: h00 + fx*(h10-h00) + fz*(h01-h00);
+		}
+	}
+
 	/**
 	 * Add a tree at the specified (x,z) point. 
 	 * The tree's y coordinate is calculated from the altitude of the terrain at that point.
@@ -156,6 +300,21 @@ public class Terrain {
 		trees.add(tree);
 	}
 
+	/**
+	 * Add trees at the first n of the specified (x,z) points.
+	 * The altitudes of all the trees are calculated in one batch.
+	 * @param xs
+	 * @param zs
+	 * @param n
+	 */
+	public void addTrees(float[] xs, float[] zs, int n) {
+		float[] ys = new float[n];
+		altitudes(xs, zs, ys, n);
+		for (int i = 0; i < n; i++) {
+			trees.add(new Tree(xs[i], ys[i], zs[i]));
+		}
+	}
+
 
 	/**
 	 * Add a road.
@@ -187,9 +346,22 @@ public class Terrain {
 	 * @return list
 	 */
 	public List<Point3D> getVertices() {
+		return getVertices(0, 0, width-1, depth-1);
+	}
+
+	/**
+	 * Get a list of vertices for generating the mesh of the part of the
+	 * terrain between the grid points (x0, z0) and (x1, z1) inclusive.
+	 * @param x0
+	 * @param z0
+	 * @param x1
+	 * @param z1
+	 * @return list
+	 */
+	public List<Point3D> getVertices(int x0, int z0, int x1, int z1) {
 		List<Point3D> list = new ArrayList<Point3D>();
-		for (int x = 0; x < width-1; x++) {
-			for (int z = 0; z < depth-1; z++) {
+		for (int z = z0; z < z1; z++) {
+			for (int x = x0; x < x1; x++) {
 				Point3D point1 = new Point3D(x, (float) getGridAltitude(x, z), z);
 				Point3D point2 = new Point3D(x, (float) getGridAltitude(x, z+1), z+1);
 				Point3D point3 = new Point3D(x+1, (float) getGridAltitude(x+1, z), z);
@@ -212,9 +384,22 @@ public class Terrain {
 	 * @return list
 	 */
 	public List<Point2D> getTexCoords() {
+		return getTexCoords(0, 0, width-1, depth-1);
+	}
+
+	/**
+	 * Get a list of texture coordinates for the part of the terrain between
+	 * the grid points (x0, z0) and (x1, z1) inclusive.
+	 * @param x0
+	 * @param z0
+	 * @param x1
+	 * @param z1
+	 * @return list
+	 */
+	public List<Point2D> getTexCoords(int x0, int z0, int x1, int z1) {
 		List<Point2D> list = new ArrayList<Point2D>();
-		for (int x = 0; x < width-1; x++) {
-			for (int z = 0; z < depth-1; z++) {
+		for (int z = z0; z < z1; z++) {
+			for (int x = x0; x < x1; x++) {
 				Point2D point1 = new Point2D(x, z);
 				Point2D point2 = new Point2D(x+1, z);
 				Point2D point3 = new Point2D(x+1, z+1);
@@ -232,43 +417,258 @@ public class Terrain {
 		return list;
 	}
 
+	/**
+	 * Make an indexed mesh of the part of the terrain between the grid points
+	 * (x0, z0) and (x1, z1) inclusive. Every grid point is a single vertex
+	 * shared by all the triangles around it, with a smooth normal computed
+	 * from the neighbouring altitudes.
+	 * @param x0
+	 * @param z0
+	 * @param x1
+	 * @param z1
+	 * @return mesh
+	 */
+	public TriangleMesh makeMesh(int x0, int z0, int x1, int z1) {
+		return makeMesh(x0, z0, x1, z1, true);
+	}
+
+	/**
+	 * Make a mesh of the part of the terrain between the grid points (x0, z0)
+	 * and (x1, z1) inclusive, optionally without indices. A mesh without
+	 * indices can only be drawn with indices from elsewhere, like those of a
+	 * {@link TerrainLod}.
+	 * @param x0
+	 * @param z0
+	 * @param x1
+	 * @param z1
+	 * @param indexed Whether to make the indices of the full resolution mesh
+	 * @return mesh
+	 */
+	public TriangleMesh makeMesh(int x0, int z0, int x1, int z1, boolean indexed) {
+		int columns = x1 - x0 + 1;
+		int rows = z1 - z0 + 1;
+		Point3DBuffer vertices = new Point3DBuffer(columns * rows);
+		Point3DBuffer normals = new Point3DBuffer(columns * rows);
+		Point2DBuffer texCoords = new Point2DBuffer(columns * rows);
+		for (int z = z0; z <= z1; z++) {
+			for (int x = x0; x <= x1; x++) {
+				int i = (z - z0) * columns + (x - x0);
+				vertices.put(i, x, (float) getGridAltitude(x, z), z);
+				texCoords.put(i, x, z);
+
+				// Central differences, or one-sided ones at the edges
+				int left = Math.max(x - 1, 0);
+				int right = Math.min(x + 1, width - 1);
+				int back = Math.max(z - 1, 0);
+				int front = Math.min(z + 1, depth - 1);
+				float nx = (float) (getGridAltitude(left, z) - getGridAltitude(right, z)) / Math.max(right - left, 1);
+				float nz = (float) (getGridAltitude(x, back) - getGridAltitude(x, front)) / Math.max(front - back, 1);
+				float length = (float) Math.sqrt(nx * nx + 1 + nz * nz);
+				normals.put(i, nx / length, 1 / length, nz / length);
+			}
+		}
+
+		if (!indexed) {
+			return new TriangleMesh(vertices, normals, texCoords, null);
+		}
+
+		IntBuffer indices = GLBuffers.newDirectIntBuffer((columns - 1) * (rows - 1) * 6);
+		for (int z = 0; z < rows - 1; z++) {
+			for (int x = 0; x < columns - 1; x++) {
+				int i = z * columns + x;
+				indices.put(i);
+				indices.put(i + columns);
+				indices.put(i + 1);
+				indices.put(i + 1);
+				indices.put(i + columns);
+				indices.put(i + columns + 1);
+			}
+		}
+		indices.flip();
+		return new TriangleMesh(vertices, normals, texCoords, indices);
+	}
+
+	/**
+	 * Start loading the textures and models the terrain's trees, roads and
+	 * ponds need in the background, so they are ready by the time init() is
+	 * called.
+	 */
+	public void prefetch() {
+		if (!trees.isEmpty()) {
+			AssetLoader.prefetchImage("res/textures/trunk.jpg");
+		}
+		if (!roads.isEmpty()) {
+			AssetLoader.prefetchImage("res/textures/rock.bmp");
+		}
+		if (!ponds.isEmpty()) {
+			Pond.prefetch();
+		}
+	}
+
 	public void init(GL3 gl, int n) {
-		List<Point3D> verticesList = getVertices();
-		List<Point2D> textList = getTexCoords();
-		mesh = new TriangleMesh(verticesList, true, textList);
-		mesh.init(gl);
+		// Tiles are stored row by row, like the altitudes
+		tiles = new ArrayList<TerrainTile>();
+		tilesX = (width - 1 + TILE_SIZE - 1) / TILE_SIZE;
+		tilesZ = (depth - 1 + TILE_SIZE - 1) / TILE_SIZE;
+		for (int z = 0; z < depth-1; z += TILE_SIZE) {
+			for (int x = 0; x < width-1; x += TILE_SIZE) {
+				tiles.add(new TerrainTile(this, x, z,
+						Math.min(x + TILE_SIZE, width-1), Math.min(z + TILE_SIZE, depth-1)));
+			}
+		}
+
+		// Build all the meshes on the asset loader's workers, and copy each
+		// one to graphics memory here as soon as it is done.
+		List<Future<Void>> tileMeshes = new ArrayList<Future<Void>>();
+		for (int i = 0; i < this.tiles.size(); i++) {
+			final TerrainTile tile = this.tiles.get(i);
+			tileMeshes.add(AssetLoader.submit("build meshes", new Runnable() {
+				@Override
+				public void run() {
+					tile.build();
+				}
+			}));
+		}
+		List<Future<Void>> roadMeshes = new ArrayList<Future<Void>>();
+		for (int i = 0; i < this.roads.size(); i++) {
+			final Road road = this.roads.get(i);
+			roadMeshes.add(AssetLoader.submit("build meshes", new Runnable() {
+				@Override
+				public void run() {
+					road.build();
+				}
+			}));
+		}
+		List<Future<Void>> pondMeshes = new ArrayList<Future<Void>>();
+		for (int i = 0; i < this.ponds.size(); i++) {
+			final Pond pond = this.ponds.get(i);
+			pondMeshes.add(AssetLoader.submit("build meshes", new Runnable() {
+				@Override
+				public void run() {
+					pond.build();
+				}
+			}));
+		}
+
+		for (int i = 0; i < this.tiles.size(); i++) {
+			AssetLoader.await(tileMeshes.get(i));
+			long start = System.nanoTime();
+			this.tiles.get(i).init(gl);
+			AssetLoader.time("upload meshes", System.nanoTime() - start);
+		}
+		lod = new TerrainLod();
 		for (int i = 0; i < this.trees.size(); i++) {
 			this.trees.get(i).init(gl);
 		}
+		forest = new Forest(trees);
+		forest.init(gl);
 		for (int i = 0; i < this.roads.size(); i++) {
+			AssetLoader.await(roadMeshes.get(i));
 			this.roads.get(i).init(gl);
 		}
 		for (int i = 0; i < this.ponds.size(); i++) {
+			AssetLoader.await(pondMeshes.get(i));
 			this.ponds.get(i).init(gl, n);
 		}
 	}
 
 	public void draw(GL3 gl, CoordFrame3D frame) {
-		mesh.draw(gl, frame);
-		for (int i = 0; i < this.trees.size(); i++) {
-			this.trees.get(i).draw(gl, frame);
+		draw(gl, frame, null);
+	}
+
+	/**
+	 * Draw the terrain, skipping any tiles that are outside the given frustum.
+	 * @param gl
+	 * @param frame
+	 * @param frustum The view frustum in the coordinates of the given frame, or
+	 * null to draw every tile.
+	 */
+	public void draw(GL3 gl, CoordFrame3D frame, Frustum frustum) {
+		draw(gl, frame, frustum, null);
+	}
+
+	/**
+	 * Draw the terrain, skipping any tiles that are outside the given frustum
+	 * and drawing each tile at the lowest level of detail whose screen-space
+	 * error from the given eye position is within the threshold.
+	 * @param gl
+	 * @param frame
+	 * @param frustum The view frustum in the coordinates of the given frame, or
+	 * null to draw every tile.
+	 * @param eye The position of the camera in the coordinates of the given
+	 * frame, or null to draw every tile at full resolution.
+	 */
+	public void draw(GL3 gl, CoordFrame3D frame, Frustum frustum, Point3D eye) {
+		// Every tile needs a level, even if it is culled, since its neighbours
+		// have to match their edges to it.
+		for (int i = 0; i < this.tiles.size(); i++) {
+			if (eye != null && lodScale > 0) {
+				this.tiles.get(i).selectLevel(eye, lodScale, lodThreshold);
+			} else {
+				this.tiles.get(i).setLevel(0);
+			}
+		}
+		drawnTriangles = 0;
+		Profiler.begin(gl, TERRAIN);
+		for (int tz = 0; tz < tilesZ; tz++) {
+			for (int tx = 0; tx < tilesX; tx++) {
+				TerrainTile tile = this.tiles.get(tz * tilesX + tx);
+				if (frustum != null && !tile.isVisible(frustum)) {
+					continue;
+				}
+				int level = tile.getLevel();
+				int north = tz > 0 ? Math.max(level, tiles.get((tz-1) * tilesX + tx).getLevel()) : level;
+				int east = tx < tilesX-1 ? Math.max(level, tiles.get(tz * tilesX + tx+1).getLevel()) : level;
+				int south = tz < tilesZ-1 ? Math.max(level, tiles.get((tz+1) * tilesX + tx).getLevel()) : level;
+				int west = tx > 0 ? Math.max(level, tiles.get(tz * tilesX + tx-1).getLevel()) : level;
+				drawnTriangles += tile.draw(gl, frame, lod, north, east, south, west);
+			}
 		}
+		Profiler.end(gl, TERRAIN);
+		Profiler.begin(gl, TREES);
+		forest.draw(gl, frame);
+		Profiler.end(gl, TREES);
+		Profiler.begin(gl, ROADS);
 		for (int i = 0; i < this.roads.size(); i++) {
 			this.roads.get(i).draw(gl, frame);
 		}
+		Profiler.end(gl, ROADS);
+		Profiler.begin(gl, PONDS);
 		for (int i = 0; i < this.ponds.size(); i++) {
 			this.ponds.get(i).draw(gl, frame);
 		}
+		// Roads and ponds leave the polygon offset on
+		GLState.polygonOffset(gl, 0.0f, 0.0f);
+		GLState.disable(gl, GL3.GL_POLYGON_OFFSET_POINT);
+		GLState.disable(gl, GL3.GL_POLYGON_OFFSET_LINE);
+		GLState.disable(gl, GL3.GL_POLYGON_OFFSET_FILL);
+		Profiler.end(gl, PONDS);
+	}
+
+	public void destroy(GL3 gl) {
+		for (int i = 0; i < this.tiles.size(); i++) {
+			this.tiles.get(i).destroy(gl);
+		}
+		lod.destroy(gl);
+		forest.destroy(gl);
+		for (int i = 0; i < this.trees.size(); i++) {
+			this.trees.get(i).destroy(gl);
+		}
+		for (int i = 0; i < this.roads.size(); i++) {
+			this.roads.get(i).destroy(gl);
+		}
+		for (int i = 0; i < this.ponds.size(); i++) {
+			this.ponds.get(i).destroy(gl);
+		}
 	}
 
 	/**
-	 * Set the pond texture based on the frame number.
-	 * @param gl
+	 * Set the pond animation frame based on the frame number.
 	 * @param n frame number
 	 */
-	public void setPondTexture(GL3 gl, int n) {
+	public void setPondFrame(int n) {
 		for (int i = 0; i < this.ponds.size(); i++) {
-			this.ponds.get(i).setTexture(gl, n);
+			this.ponds.get(i).setFrame(n);
 		}
 	}
 
@@ -0,0 +1,184 @@
+package unsw.graphics.world;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+import com.jogamp.opengl.util.GLBuffers;
+
+import unsw.graphics.GLState;
+
+/**
+ * The index buffers used to draw terrain tiles at lower levels of detail.
+ *
+ * At level l a tile only uses every (2^l)th grid point in each direction (plus
+ * the last one), so it is drawn with about 4^l times fewer triangles from the
+ * same vertex buffer. Where a tile borders a tile drawn at a coarser level,
+ * the grid points along that edge that the neighbour skips are snapped to a
+ * nearby grid point the neighbour does use. Both tiles then have exactly the
+ * same edge, so there are no cracks between them.
+ *
+ * Index buffers only depend on the size of a tile and the levels involved, so
+ * they are built the first time they are needed and shared by all tiles.
+ */
+public class TerrainLod {
+
+	/**
+	 * An index buffer in graphics memory.
+	 */
+	public static class Indices {
+		private int name;
+		private int count;
+
+		/**
+		 * The name of the index buffer according to OpenGL
+		 * @return name
+		 */
+		public int getName() {
+			return name;
+		}
+
+		/**
+		 * The number of indices in the buffer
+		 * @return count
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	private Map<Long, Indices> indices = new HashMap<Long, Indices>();
+
+	/**
+	 * Get the index buffer for drawing a tile at the given level of detail.
+	 * The levels of the edges are those the edges must match, i.e. the larger
+	 * of the tile's own level and its neighbour's on that side.
+	 * @param gl
+	 * @param cellsX The number of grid cells across the tile in the x-direction
+	 * @param cellsZ The number of grid cells across the tile in the z-direction
+	 * @param level
+	 * @param north The level of the edge at the tile's smallest z
+	 * @param east The level of the edge at the tile's largest x
+	 * @param south The level of the edge at the tile's largest z
+	 * @param west The level of the edge at the tile's smallest x
+	 * @return indices
+	 */
+	public Indices get(GL3 gl, int cellsX, int cellsZ, int level, int north,
+			int east, int south, int west) {
+		long key = ((long) cellsX << 40) | ((long) cellsZ << 24) | (level << 16)
+				| (north << 12) | (east << 8) | (south << 4) | west;
+		Indices result = indices.get(key);
+		if (result == null) {
+			IntBuffer buffer = makeIndices(cellsX, cellsZ, level, north, east, south, west);
+			int[] names = new int[1];
+			gl.glGenBuffers(1, names, 0);
+			result = new Indices();
+			result.name = names[0];
+			result.count = buffer.limit();
+			GLState.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, result.name);
+			gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER,
+					result.count * Integer.BYTES, buffer, GL.GL_STATIC_DRAW);
+			indices.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Make the indices for drawing a tile at the given level of detail. The
+	 * vertices of the tile are assumed to be stored row by row, i.e. grid point
+	 * (x, z) of the tile is vertex z * (cellsX + 1) + x. See
+	 * {@link #get(GL3, int, int, int, int, int, int, int)} for the arguments.
+	 * @return indices
+	 */
+	public static IntBuffer makeIndices(int cellsX, int cellsZ, int level,
+			int north, int east, int south, int west) {
+		int[] xs = positions(cellsX, 1 << level);
+		int[] zs = positions(cellsZ, 1 << level);
+		int columns = cellsX + 1;
+
+		IntBuffer buffer = GLBuffers.newDirectIntBuffer((xs.length - 1) * (zs.length - 1) * 6);
+		int[] corners = new int[4];
+		for (int b = 0; b < zs.length - 1; b++) {
+			for (int a = 0; a < xs.length - 1; a++) {
+				// The corners (x0,z0), (x0,z1), (x1,z0), (x1,z1) of the cell
+				for (int c = 0; c < 4; c++) {
+					int x = xs[a + c / 2];
+					int z = zs[b + c % 2];
+					// Snap points on edges to those the neighbour uses
+					if (x == 0)
+						z = snap(z, 1 << west, cellsZ, true);
+					else if (x == cellsX)
+						z = snap(z, 1 << east, cellsZ, false);
+					if (z == 0)
+						x = snap(x, 1 << north, cellsX, false);
+					else if (z == cellsZ)
+						x = snap(x, 1 << south, cellsX, true);
+					corners[c] = z * columns + x;
+				}
+				// Same split as the full resolution mesh
+				triangle(buffer, corners[0], corners[1], corners[2]);
+				triangle(buffer, corners[2], corners[1], corners[3]);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * The grid positions used along an edge of the given number of cells when
+	 * only every step-th one is used. The last position is always included.
+	 * @param cells
+	 * @param step
+	 * @return positions
+	 */
+	private static int[] positions(int cells, int step) {
+		int n = (cells + step - 1) / step + 1;
+		int[] positions = new int[n];
+		for (int i = 0; i < n - 1; i++) {
+			positions[i] = i * step;
+		}
+		positions[n - 1] = cells;
+		return positions;
+	}
+
+	/**
+	 * Snap a grid position to the nearest position before (or after) it that
+	 * is used with the given step. The last position is always used.
+	 * 
+	 * Each edge snaps towards a different corner of the tile (going around the
+	 * tile), so every corner has an edge snapping towards it. If two edges
+	 * snapped away from the same corner, the triangles around that corner
+	 * could overlap.
+	 * @param p
+	 * @param step
+	 * @param cells
+	 * @param up Whether to snap to the next position rather than the previous
+	 * @return position
+	 */
+	private static int snap(int p, int step, int cells, boolean up) {
+		if (up)
+			return Math.min((p + step - 1) / step * step, cells);
+		return p == cells ? p : p / step * step;
+	}
+
+	/**
+	 * Add a triangle to the buffer, unless snapping has collapsed it.
+	 */
+	private static void triangle(IntBuffer buffer, int i1, int i2, int i3) {
+		if (i1 != i2 && i2 != i3 && i1 != i3) {
+			buffer.put(i1);
+			buffer.put(i2);
+			buffer.put(i3);
+		}
+	}
+
+	public void destroy(GL3 gl) {
+		for (Indices i : indices.values()) {
+			GLState.deleteBuffers(gl, i.name);
+		}
+		indices.clear();
+	}
+
+}
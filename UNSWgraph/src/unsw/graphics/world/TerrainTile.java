@@ -0,0 +1,184 @@
+package unsw.graphics.world;
+
+import com.jogamp.opengl.GL3;
+
+import unsw.graphics.CoordFrame3D;
+import unsw.graphics.Frustum;
+import unsw.graphics.geometry.Point3D;
+import unsw.graphics.geometry.TriangleMesh;
+
+/**
+ * A rectangular piece of a terrain with its own mesh.
+ *
+ * Splitting the terrain into tiles means tiles that are outside the view
+ * frustum can be skipped entirely when drawing. Tiles further from the camera
+ * are drawn at lower levels of detail (see {@link TerrainLod}).
+ */
+public class TerrainTile {
+
+	private Terrain terrain;
+
+	// The grid points covered by the tile, inclusive
+	private int x0;
+	private int z0;
+	private int x1;
+	private int z1;
+
+	// The altitude range of the tile, used for its bounding box
+	private float minY;
+	private float maxY;
+
+	// The geometric error of each level of detail, i.e. the largest vertical
+	// distance between the full resolution surface and the surface drawn at
+	// that level
+	private float[] errors;
+	private int level;
+
+	private TriangleMesh mesh;
+
+	/**
+	 * Create a tile covering the grid points from (x0, z0) to (x1, z1)
+	 * inclusive.
+	 * @param terrain
+	 * @param x0
+	 * @param z0
+	 * @param x1
+	 * @param z1
+	 */
+	public TerrainTile(Terrain terrain, int x0, int z0, int x1, int z1) {
+		this.terrain = terrain;
+		this.x0 = x0;
+		this.z0 = z0;
+		this.x1 = x1;
+		this.z1 = z1;
+	}
+
+	/**
+	 * Work out the tile's bounds and errors and make its mesh. This does not
+	 * use OpenGL, so it can be done on any thread before {@link #init(GL3)}.
+	 */
+	public void build() {
+		minY = Float.POSITIVE_INFINITY;
+		maxY = Float.NEGATIVE_INFINITY;
+		for (int z = z0; z <= z1; z++) {
+			for (int x = x0; x <= x1; x++) {
+				float y = (float) terrain.getGridAltitude(x, z);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+		}
+		errors = computeErrors();
+		mesh = terrain.makeMesh(x0, z0, x1, z1, false);
+	}
+
+	/**
+	 * Compute the geometric error of each level of detail. Errors are made to
+	 * never decrease from one level to the next, so the level chosen for a
+	 * tile changes smoothly with distance.
+	 * @return errors
+	 */
+	private float[] computeErrors() {
+		float[] errors = new float[Terrain.LOD_LEVELS];
+		int cellsX = x1 - x0;
+		int cellsZ = z1 - z0;
+		for (int l = 1; l < errors.length; l++) {
+			int step = 1 << l;
+			float error = errors[l-1];
+			for (int z = 0; z <= cellsZ; z++) {
+				// The cell of this level that grid point (x, z) is in
+				int cz0 = Math.min(z / step * step, (cellsZ - 1) / step * step);
+				int cz1 = Math.min(cz0 + step, cellsZ);
+				float v = (float) (z - cz0) / (cz1 - cz0);
+				for (int x = 0; x <= cellsX; x++) {
+					int cx0 = Math.min(x / step * step, (cellsX - 1) / step * step);
+					int cx1 = Math.min(cx0 + step, cellsX);
+					float u = (float) (x - cx0) / (cx1 - cx0);
+					float h00 = (float) terrain.getGridAltitude(x0 + cx0, z0 + cz0);
+					float h10 = (float) terrain.getGridAltitude(x0 + cx1, z0 + cz0);
+					float h01 = (float) terrain.getGridAltitude(x0 + cx0, z0 + cz1);
+					float h11 = (float) terrain.getGridAltitude(x0 + cx1, z0 + cz1);
+					// Interpolate on the triangle of the cell the point is in,
+					// split the same way as the mesh
+					float approx;
+					if (u + v <= 1)
+						approx = h00 + u * (h10 - h00) + v * (h01 - h00);
+					else
+						approx = h11 + (1 - u) * (h01 - h11) + (1 - v) * (h10 - h11);
+					float h = (float) terrain.getGridAltitude(x0 + x, z0 + z);
+					error = Math.max(error, Math.abs(h - approx));
+				}
+			}
+			errors[l] = error;
+		}
+		return errors;
+	}
+
+	/**
+	 * Choose the lowest level of detail whose error, projected onto the screen
+	 * from the given eye position, is no more than the given threshold.
+	 * @param eye
+	 * @param scale The number of pixels a unit length covers at distance 1
+	 * @param threshold The largest acceptable error in pixels
+	 */
+	public void selectLevel(Point3D eye, float scale, float threshold) {
+		// The distance from the eye to the nearest point of the bounding box
+		float dx = Math.max(Math.max(x0 - eye.getX(), eye.getX() - x1), 0);
+		float dy = Math.max(Math.max(minY - eye.getY(), eye.getY() - maxY), 0);
+		float dz = Math.max(Math.max(z0 - eye.getZ(), eye.getZ() - z1), 0);
+		float distance = Math.max((float) Math.sqrt(dx*dx + dy*dy + dz*dz), 1e-3f);
+		level = 0;
+		while (level + 1 < errors.length
+				&& errors[level + 1] * scale / distance <= threshold) {
+			level++;
+		}
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Determine whether any of the tile could be visible.
+	 * @param frustum
+	 * @return false if the tile is definitely outside the frustum
+	 */
+	public boolean isVisible(Frustum frustum) {
+		return frustum.intersectsBox(x0, minY, z0, x1, maxY, z1);
+	}
+
+	public void init(GL3 gl) {
+		if (mesh == null) {
+			build();
+		}
+		mesh.init(gl);
+	}
+
+	/**
+	 * Draw the tile at its current level of detail, with edges matching the
+	 * given levels.
+	 * @param gl
+	 * @param frame
+	 * @param lod
+	 * @param north The level of the edge at the tile's smallest z
+	 * @param east The level of the edge at the tile's largest x
+	 * @param south The level of the edge at the tile's largest z
+	 * @param west The level of the edge at the tile's smallest x
+	 * @return The number of triangles drawn
+	 */
+	public int draw(GL3 gl, CoordFrame3D frame, TerrainLod lod, int north,
+			int east, int south, int west) {
+		TerrainLod.Indices indices = lod.get(gl, x1 - x0, z1 - z0, level,
+				north, east, south, west);
+		mesh.draw(gl, frame, indices.getName(), indices.getCount());
+		return indices.getCount() / 3;
+	}
+
+	public void destroy(GL3 gl) {
+		mesh.destroy(gl);
+	}
+
+}
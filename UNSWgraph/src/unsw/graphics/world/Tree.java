@@ -3,12 +3,14 @@ package unsw.graphics.world;
 import java.awt.Color;
 import java.io.IOException;
 
-import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.Matrix4;
+import unsw.graphics.Matrix4f;
 import unsw.graphics.Shader;
-import unsw.graphics.Texture;
+import unsw.graphics.TextureCache;
+import unsw.graphics.geometry.MeshRegistry;
 import unsw.graphics.geometry.Point3D;
 import unsw.graphics.geometry.TriangleMesh;
 
@@ -21,12 +23,19 @@ public class Tree {
 
 	private Point3D position;
 	private TriangleMesh mesh;
-	private Texture texture;
+	private TextureCache.Handle texture;
+
+	private Matrix4f model;
+
+	// The matrix trees are drawn with, reused for every tree
+	private static final Matrix4f modelView = new Matrix4f();
 
 	public Tree(float x, float y, float z) {
 		position = new Point3D(x, y, z);
+		model = new Matrix4f().translate(x, y+0.5f, z)
+				.rotateY(-45).scale(0.1f, 0.1f, 0.1f);
 		try {
-			mesh = new TriangleMesh("res/models/tree.ply", true, true);
+			mesh = MeshRegistry.get("res/models/tree.ply", true, true);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -37,16 +46,28 @@ public class Tree {
 		return position;
 	}
 
+	/**
+	 * Get the model matrix that places the tree model on the terrain.
+	 * @return matrix
+	 */
+	public Matrix4 getModelMatrix() {
+		return model.toMatrix4();
+	}
+
 	public void init(GL3 gl) {
-		texture = new Texture(gl, "res/textures/trunk.jpg", "jpg", true);
-		mesh.init(gl);
+		texture = TextureCache.get(gl, "res/textures/trunk.jpg", "jpg", true);
+		MeshRegistry.init(gl, mesh);
 	}
 
 	public void draw(GL3 gl, CoordFrame3D frame) {
 		Shader.setPenColor(gl, Color.WHITE);
-		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getId());
-		frame = frame.translate(position.getX(), position.getY()+0.5f, position.getZ()).rotateY(-45).scale(0.1f, 0.1f, 0.1f);
-		mesh.draw(gl, frame);
+		TextureCache.bind(gl, texture);
+		mesh.draw(gl, modelView.set(frame.getMatrix()).multiply(model));
+	}
+
+	public void destroy(GL3 gl) {
+		MeshRegistry.destroy(gl, mesh);
+		TextureCache.release(gl, texture);
 	}
 
 }
@@ -2,16 +2,23 @@ package unsw.graphics.world;
 
 import java.awt.Color;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
 import unsw.graphics.Application3D;
+import unsw.graphics.AssetLoader;
 import unsw.graphics.CoordFrame3D;
+import unsw.graphics.Frustum;
+import unsw.graphics.GLState;
 import unsw.graphics.Matrix4;
+import unsw.graphics.Profiler;
 import unsw.graphics.Shader;
-import unsw.graphics.Texture;
+import unsw.graphics.TextureCache;
+import unsw.graphics.UniformBlock;
+import unsw.graphics.Vector3;
+import unsw.graphics.geometry.MeshRegistry;
 import unsw.graphics.geometry.Point3D;
 
 
@@ -35,39 +42,119 @@ import unsw.graphics.geometry.Point3D;
  * N key: Switch on/off the night mode.
  * T key: Switch on/off the torch (you can only see the torch light in the night mode).
  * S key: Switch on/off the sun mode.
+ * R key: Start/stop recording the camera's path to camera_path.txt, which can
+ *        be replayed with {@link Benchmark}.
+ * P key: Print how long each phase of startup took, and how long each phase
+ *        of drawing has taken on the CPU and GPU.
  * 
  * @author Yifan Zhu
  */
 public class World extends Application3D {
 
+	// The uniforms of the world shader
+	private static final Shader.Uniform TEX = Shader.uniform("tex");
+	private static final Shader.Uniform TEX_ARRAY = Shader.uniform("texArray");
+	private static final Shader.Uniform USE_TEX_ARRAY = Shader.uniform("useTexArray");
+
+	// The phases of drawing a frame, for profiling. The terrain profiles its
+	// own phases.
+	private static final Profiler.Scope UNIFORMS = Profiler.scope("uniform setup");
+	private static final Profiler.Scope AVATAR = Profiler.scope("avatar");
+
+	// The std140 offsets of the members of the Lights block
+	private static final int LIGHT_DIRECTION = 0;
+	private static final int COS_CUTOFF = 12;
+	private static final int LIGHT_INTENSITY = 16;
+	private static final int CONSTANT = 28;
+	private static final int TORCH_LIGHT = 32;
+	private static final int LINEAR = 44;
+	private static final int AMBIENT_INTENSITY_NIGHT = 48;
+	private static final int QUADRATIC = 60;
+	private static final int AMBIENT_INTENSITY_TORCH = 64;
+	private static final int AMBIENT_INTENSITY_DAY = 80;
+	private static final int LIGHTS_SIZE = 96;
+
+	// The std140 offsets of the members of the Material block
+	private static final int AMBIENT_COEFF = 0;
+	private static final int PHONG_EXP = 12;
+	private static final int DIFFUSE_COEFF_NIGHT = 16;
+	private static final int DIFFUSE_COEFF_TORCH = 32;
+	private static final int DIFFUSE_COEFF_DAY = 48;
+	private static final int SPECULAR_COEFF_NIGHT = 64;
+	private static final int SPECULAR_COEFF_TORCH = 80;
+	private static final int SPECULAR_COEFF_DAY = 96;
+	private static final int MATERIAL_SIZE = 112;
+
 	private Terrain terrain;
 	private Camera camera;
-	private Texture texture;
+	private TextureCache.Handle texture;
+	private Matrix4 projMatrix;
+	// The variants of the world shader for each lighting mode
+	private Shader dayShader;
+	private Shader nightShader;
+	private Shader torchShader;
+	private UniformBlock lights;
+	private UniformBlock material;
 
 	private boolean nightMode;
 	private boolean torchMode;
 	private boolean sunMode;
 
+	// The path being recorded, if any
+	private CameraPath recording;
+
+	// When startup began, for timing it
+	private long startTime;
+
 	public World(Terrain terrain) {
-		super("Assignment 2", 800, 600);
+		this(terrain, 800, 600);
+	}
+
+	public World(Terrain terrain, int width, int height) {
+		super("Assignment 2", width, height);
 		this.terrain = terrain;
 		this.camera = new Camera(this);
 		this.nightMode = false;
 		this.torchMode = false;
 		this.sunMode = false;
+		this.startTime = System.nanoTime();
 	}
 
 	/**
 	 * Load a level file and display it.
-	 * @param args - The first argument is a level file in JSON format
-	 * @throws FileNotFoundException
+	 * @param args - The first argument is a level file in JSON or binary format
+	 * @throws IOException
 	 */
-	public static void main(String[] args) throws FileNotFoundException {
-		Terrain terrain = LevelIO.load(new File(args[0]));
+	public static void main(String[] args) throws IOException {
+		long start = System.nanoTime();
+		Terrain terrain = load(new File(args[0]));
 		World world = new World(terrain);
+		world.startTime = start;
+		Profiler.setEnabled(true);
 		world.start();
 	}
 
+	/**
+	 * Load a level, decoding images and parsing models in the background
+	 * while it is read.
+	 * @param file A level file in JSON or binary format
+	 * @return terrain
+	 * @throws IOException
+	 */
+	static Terrain load(File file) throws IOException {
+		long start = System.nanoTime();
+		AssetLoader.start(Runtime.getRuntime().availableProcessors());
+		AssetLoader.prefetchImage("res/textures/grass.jpg");
+		AssetLoader.prefetchImage("res/textures/wolf.jpg");
+		MeshRegistry.prefetch("res/models/wolf.ply", true, true);
+		MeshRegistry.prefetch("res/models/tree.ply", true, true);
+
+		Terrain terrain = LevelIO.read(file);
+		AssetLoader.time("load level", System.nanoTime() - start);
+		terrain.prefetch();
+		return terrain;
+	}
+
 	public Point3D getAvatarPosition() {
 		return camera.getPosition();
 	}
@@ -76,6 +163,10 @@ public class World extends Application3D {
 		return terrain;
 	}
 
+	public Camera getCamera() {
+		return camera;
+	}
+
 	public void switchNightMode() {
 		nightMode = !nightMode;
 	}
@@ -88,87 +179,187 @@ public class World extends Application3D {
 		sunMode = !sunMode;
 	}
 
+	/**
+	 * Start recording the camera's path, or stop and save it to
+	 * camera_path.txt.
+	 */
+	public void switchRecording() {
+		if (recording == null) {
+			recording = new CameraPath();
+			System.out.println("Recording camera path");
+			return;
+		}
+		File file = new File("camera_path.txt");
+		try {
+			recording.write(file);
+			System.out.println("Saved " + recording.size() + " frames to " + file);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		recording = null;
+	}
+
+	/**
+	 * Print how long each phase of startup took, and how long each phase of
+	 * drawing took in the last frames.
+	 */
+	public void printProfile() {
+		System.out.print(AssetLoader.report());
+		System.out.print(Profiler.report());
+	}
+
 	@Override
 	public void display(GL3 gl) {
 		int n = this.getNumberOfDisplay();
-		super.display(gl);
-		terrain.setPondTexture(gl, n);
-		Shader.setPenColor(gl, Color.WHITE);
-		Shader.setInt(gl, "tex", 0);
-		gl.glActiveTexture(GL.GL_TEXTURE0);
-		gl.glBindTexture(GL.GL_TEXTURE_2D, texture.getId());
-		Shader.setPoint3D(gl, "directionalLight", new Point3D(terrain.getSunlight().getX(), terrain.getSunlight().getY(), terrain.getSunlight().getZ()));
-		Shader.setPoint3D(gl, "torchLight", new Point3D(0, 0, 0));
-		if (camera.isThirdPerson()) {
-			Shader.setPoint3D(gl, "torchLight", new Point3D(0, 0, -2));
-		}
-		Shader.setFloat(gl, "cutoff", 30);
-		Shader.setColor(gl, "lightIntensity", Color.WHITE);
-		Shader.setColor(gl, "ambientCoeff", Color.WHITE);
-		Shader.setColor(gl, "ambientIntensityNight", new Color(0.001f, 0.001f, 0.001f));
-		Shader.setColor(gl, "ambientIntensityTorch", new Color(0.5f, 0.5f, 0.5f));
-		Shader.setColor(gl, "ambientIntensityDay", new Color(0.5f, 0.5f, 0.5f));
-		Shader.setColor(gl, "diffuseCoeffNight", new Color(0.1f, 0.1f, 0.1f));
-		Shader.setColor(gl, "diffuseCoeffTorch", new Color(0.8f, 0.8f, 0.8f));
-		Shader.setColor(gl, "diffuseCoeffDay", new Color(0.5f, 0.5f, 0.5f));
-		Shader.setColor(gl, "specularCoeffNight", new Color(0.01f, 0.01f, 0.01f));
-		Shader.setColor(gl, "specularCoeffTorch", new Color(1, 1, 1));
-		Shader.setColor(gl, "specularCoeffDay", new Color(0.2f, 0.2f, 0.2f));
-		Shader.setFloat(gl, "phongExp", 16f);
-		Shader.setFloat(gl, "constant", 1.0f);
-		Shader.setFloat(gl, "linear", 0.09f);
-		Shader.setFloat(gl, "quadratic", 0.032f);
-		// Set the shader based on the mode
+		// Each lighting mode has its own variant of the shader
+		Shader shader;
 		if (nightMode && !torchMode) {
-			this.setBackground(new Color(0, 0, 0.1f));
-			Shader.setInt(gl, "mode", 1);
-			Shader.setColor(gl, "lightIntensity", new Color(0.5f, 0.5f, 0.5f));
+			shader = nightShader;
 		} else if (nightMode && torchMode) {
-			this.setBackground(new Color(0, 0, 0.1f));
-			Shader.setInt(gl, "mode", 2);
-			Shader.setColor(gl, "lightIntensity", new Color(0.5f, 0.5f, 0.5f));
+			shader = torchShader;
 		} else {
-			this.setBackground(new Color(0.2f, 0.6f, 1.0f));
-			Shader.setInt(gl, "mode", 0);
-			if (sunMode) {
-				camera.moveSun();
-				this.setBackground(camera.getSkyColor());
-				Shader.setColor(gl, "lightIntensity", camera.getSunColor());
-				Shader.setPoint3D(gl, "directionalLight", camera.getSunPosition());
-				Shader.setColor(gl, "ambientIntensityDay", camera.getAmbientLight());
+			shader = dayShader;
+		}
+		if (recording != null) {
+			recording.add(camera);
+		}
+		// Clearing the screen is counted with the uniforms
+		Profiler.begin(gl, UNIFORMS);
+		shader.use(gl);
+		super.display(gl);
+		terrain.setPondFrame(n);
+		Shader.setPenColor(gl, Color.WHITE);
+		GLState.activeTexture(gl, GL.GL_TEXTURE0);
+		TextureCache.bind(gl, texture);
+		// Each value is set once, so values that stay the same from frame to
+		// frame are not uploaded again
+		boolean sun = sunMode && !nightMode;
+		Vector3 direction;
+		if (sun) {
+			camera.moveSun();
+			Point3D p = camera.getSunPosition();
+			direction = new Vector3(p.getX(), p.getY(), p.getZ());
+			this.setBackground(camera.getSkyColor());
+			lights.setColor(LIGHT_INTENSITY, camera.getSunColor());
+			lights.setColor(AMBIENT_INTENSITY_DAY, camera.getAmbientLight());
+		} else {
+			direction = terrain.getSunlight();
+			if (nightMode) {
+				this.setBackground(new Color(0, 0, 0.1f));
+				lights.setVec3(LIGHT_INTENSITY, 0.5f, 0.5f, 0.5f);
+			} else {
+				this.setBackground(new Color(0.2f, 0.6f, 1.0f));
+				lights.setVec3(LIGHT_INTENSITY, 1, 1, 1);
 			}
+			lights.setVec3(AMBIENT_INTENSITY_DAY, 0.5f, 0.5f, 0.5f);
 		}
+		// The shader wants the light direction in view coordinates, which
+		// only needs working out once per frame rather than per fragment
+		Vector3 s = camera.getViewMatrix().multiply(direction.extend()).trim().normalize();
+		lights.setVec3(LIGHT_DIRECTION, s.getX(), s.getY(), s.getZ());
+		if (camera.isThirdPerson()) {
+			lights.setVec3(TORCH_LIGHT, 0, 0, -2);
+		} else {
+			lights.setVec3(TORCH_LIGHT, 0, 0, 0);
+		}
+		lights.setFloat(COS_CUTOFF, (float) Math.cos(Math.toRadians(30)));
+		lights.setVec3(AMBIENT_INTENSITY_NIGHT, 0.001f, 0.001f, 0.001f);
+		lights.setVec3(AMBIENT_INTENSITY_TORCH, 0.5f, 0.5f, 0.5f);
+		lights.setFloat(CONSTANT, 1.0f);
+		lights.setFloat(LINEAR, 0.09f);
+		lights.setFloat(QUADRATIC, 0.032f);
+		lights.upload(gl);
 		camera.setView(gl);
+		Profiler.end(gl, UNIFORMS);
 		CoordFrame3D frame = CoordFrame3D.identity();
-		terrain.draw(gl, frame);
+		Frustum frustum = new Frustum(projMatrix.multiply(camera.getViewMatrix()));
+		terrain.draw(gl, frame, frustum, camera.getEyePosition());
+		Profiler.begin(gl, AVATAR);
 		// Keep the avatar not be illuminated by the torch
-		if (nightMode && torchMode) {
-			Shader.setInt(gl, "mode", 1);
-			Shader.setColor(gl, "lightIntensity", new Color(0.5f, 0.5f, 0.5f));
+		if (shader == torchShader) {
+			nightShader.use(gl);
+			Shader.setPenColor(gl, Color.WHITE);
 		}
 		camera.draw(gl, frame);
+		Profiler.end(gl, AVATAR);
 	}
 
 	@Override
 	public void destroy(GL3 gl) {
+		terrain.destroy(gl);
+		camera.destroy(gl);
+		dayShader.destroy(gl);
+		nightShader.destroy(gl);
+		torchShader.destroy(gl);
+		lights.destroy(gl);
+		material.destroy(gl);
+		TextureCache.release(gl, texture);
+		Profiler.destroy(gl);
 		super.destroy(gl);
 	}
 
 	@Override
 	public void init(GL3 gl) {
+		long start = System.nanoTime();
 		int n = this.getNumberOfDisplay();
 		super.init(gl);
-		Shader shader = new Shader(gl, "shaders/vertex_tex_phong.glsl", "shaders/fragment_tex_phong_world.glsl");
-		shader.use(gl);
-		texture = new Texture(gl, "res/textures/grass.jpg", "jpg", true);
+		dayShader = makeShader(gl, "DAY");
+		nightShader = makeShader(gl, "NIGHT");
+		torchShader = makeShader(gl, "TORCH");
+		lights = new UniformBlock(gl, "Lights", LIGHTS_SIZE);
+		material = new UniformBlock(gl, "Material", MATERIAL_SIZE);
+		setMaterial(gl);
+		texture = TextureCache.get(gl, "res/textures/grass.jpg", "jpg", true);
 		terrain.init(gl, n);
 		camera.init(gl);
-		getWindow().addKeyListener(camera);
+		// There is no window to listen to when drawing offscreen
+		if (getWindow() != null)
+			getWindow().addKeyListener(camera);
+
+		long end = System.nanoTime();
+		AssetLoader.time("init", end - start);
+		AssetLoader.time("startup", end - startTime);
+		AssetLoader.shutdown();
+	}
+
+	/**
+	 * Make the variant of the world shader for a lighting mode and set the
+	 * uniforms that never change.
+	 * @param gl
+	 * @param mode The macro selecting the mode
+	 * @return shader, which is left in use
+	 */
+	private Shader makeShader(GL3 gl, String mode) {
+		Shader shader = new Shader(gl, "shaders/vertex_tex_phong.glsl",
+				"shaders/fragment_tex_phong_world.glsl", mode);
+		shader.use(gl);
+		Shader.setInt(gl, TEX, 0);
+		Shader.setInt(gl, TEX_ARRAY, 1);
+		Shader.setInt(gl, USE_TEX_ARRAY, 0);
+		return shader;
+	}
+
+	/**
+	 * Set the material, which is the same for everything in the world.
+	 * @param gl
+	 */
+	private void setMaterial(GL3 gl) {
+		material.setVec3(AMBIENT_COEFF, 1, 1, 1);
+		material.setFloat(PHONG_EXP, 16f);
+		material.setVec3(DIFFUSE_COEFF_NIGHT, 0.1f, 0.1f, 0.1f);
+		material.setVec3(DIFFUSE_COEFF_TORCH, 0.8f, 0.8f, 0.8f);
+		material.setVec3(DIFFUSE_COEFF_DAY, 0.5f, 0.5f, 0.5f);
+		material.setVec3(SPECULAR_COEFF_NIGHT, 0.01f, 0.01f, 0.01f);
+		material.setVec3(SPECULAR_COEFF_TORCH, 1, 1, 1);
+		material.setVec3(SPECULAR_COEFF_DAY, 0.2f, 0.2f, 0.2f);
+		material.upload(gl);
 	}
 
 	@Override
 	public void reshape(GL3 gl, int width, int height) {
 		super.reshape(gl, width, height);
-		Shader.setProjMatrix(gl, Matrix4.perspective(60, width/(float)height, 1, 100));
+		projMatrix = Matrix4.perspective(60, width/(float)height, 1, 100);
+		Shader.setProjMatrix(gl, projMatrix);
+		terrain.setLodProjection(60, height);
 	}
 }